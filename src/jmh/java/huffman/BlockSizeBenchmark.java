@@ -0,0 +1,79 @@
+package huffman;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// compressFile and decompressFile at block sizes from MIN_BLOCK_SIZE to MAX_BLOCK_SIZE, on `threads` threads
+// (parallel blocks when above 1). Setup prints the output size, which shows the cost of the frames and the index.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockSizeBenchmark {
+    @Param({"16384", "65536", "262144", "1048576", "4194304", "16777216", "67108864"})
+    int blockSize;
+    @Param({"1"})
+    int threads;
+    @Param({"2"})
+    int n;
+    @Param({"text"})
+    String corpus;
+    // Corpus size in MB
+    @Param({"64"})
+    int size;
+
+    File file;
+    File compressed;
+    File restored;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] data = Corpora.corpus(corpus, size << 20);
+        file = Corpora.file("hc-bench-blocks", data);
+        compressed = new File(file.getPath() + ".hc");
+        restored = new File(file.getPath() + ".out");
+        compressFile();
+        decompressFile();
+        if(!Arrays.equals(data, Files.readAllBytes(restored.toPath()))){
+            throw new IllegalStateException("Round trip failed with " + blockSize + " byte blocks");
+        }
+        System.out.printf("%n%d KB blocks: %d bytes%n", blockSize >> 10, compressed.length());
+    }
+    @TearDown
+    public void tearDown(){
+        file.delete();
+        compressed.delete();
+        restored.delete();
+    }
+
+    @Benchmark
+    public void compressFile() throws Exception {
+        Compressor compressor = new Compressor(n, file.getPath(), restored.getPath(), compressed.getPath());
+        compressor.setBlockSize(blockSize);
+        compressor.threads = threads;
+        compressor.compressFile();
+    }
+    @Benchmark
+    public void decompressFile() throws Exception {
+        Compressor decompressor = new Compressor(1, "", restored.getPath(), compressed.getPath());
+        decompressor.compressedFile = compressed.getPath();
+        decompressor.threads = threads;
+        decompressor.decompressFile();
+    }
+}
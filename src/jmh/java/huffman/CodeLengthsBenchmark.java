@@ -0,0 +1,72 @@
+package huffman;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The Node tree (constructHuffmanTree + constructCanonicalCodeMap) against constructCanonicalCodes for alphabets of
+// k symbols (n=4, scattered keys): Zipf-distributed, and flat (every count 1, as in random input), where almost
+// every count ties. Each run starts from an empty bytesToCode, as a compressFile does. The Node tree for k=16777216
+// needs a few GB of heap, hence -Xmx4g.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xss64m", "-Xmx4g"})
+public class CodeLengthsBenchmark {
+    @Param({"zipf", "flat"})
+    String distribution;
+    @Param({"256", "4096", "65536", "1048576", "16777216"})
+    int k;
+
+    Compressor compressor;
+
+    @Setup
+    public void setup(){
+        compressor = new Compressor(4);
+        for(long i=0; i<k; i++){
+            long count = distribution.equals("flat") ? 1 : 1+4L*k/(i+1);
+            compressor.freq.add((i*0x9E3779B1L) & 0xFFFFFFFFL, count);
+        }
+        arrays();
+        long arrayBits = codedBits();
+        tree();
+        if(codedBits() != arrayBits){
+            throw new IllegalStateException("Code lengths differ for " + distribution + " k=" + k);
+        }
+    }
+    // Total coded size in bits of the frequencies under the current table
+    private long codedBits(){
+        long bits = 0;
+        int symbol = 0;
+        for(int len=1; len<compressor.lengthCounts.length; len++){
+            for(int j=0; j<compressor.lengthCounts[len]; j++, symbol++){
+                bits += len*compressor.freq.get(Arrays.copyOfRange(compressor.sortedSymbols, symbol*4, (symbol+1)*4));
+            }
+        }
+        return bits;
+    }
+
+    @Benchmark
+    public void arrays(){
+        compressor.bytesToCode = compressor.newBytesToCodeMap();
+        compressor.constructCanonicalCodes();
+    }
+    @Benchmark
+    public void tree(){
+        compressor.bytesToCode = compressor.newBytesToCodeMap();
+        compressor.constructHuffmanTree();
+        compressor.constructCanonicalCodeMap();
+    }
+}
@@ -0,0 +1,88 @@
+package huffman;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Deterministic synthetic inputs shared by the benchmarks
+final class Corpora {
+    static final String[] WORDS = ("the of and to in is was for that with as on by he it at from his an were are which this be "
+            + "or has had not first one their its new after but who they have her she two been other when there all during into "
+            + "compression huffman symbol frequency block decoder encoder table stream header buffer").split(" ");
+
+    private Corpora(){
+    }
+
+    // `size` bytes of "text", "json", "binary", "random" or "skewed"
+    static byte[] corpus(String kind, int size){
+        Random random = new Random(42);
+        byte[] data = new byte[size];
+        if(kind.equals("random")){
+            random.nextBytes(data);
+            return data;
+        }
+        if(kind.equals("skewed")){
+            for(int i=0; i<size; i++){
+                data[i] = (byte)Math.min(255, (int)(-Math.log(1-random.nextDouble())*3));
+            }
+            return data;
+        }
+        if(kind.equals("binary")){
+            // fixed-size records: small little-endian counters, flags, float samples and padding
+            ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            int id = 0;
+            while(buffer.remaining() >= 16){
+                buffer.putInt(id++);
+                buffer.putShort((short)random.nextInt(1000));
+                buffer.put((byte)(random.nextInt(4)));
+                buffer.put((byte)0);
+                buffer.putFloat((float)random.nextGaussian());
+                buffer.putInt(0);
+            }
+            return data;
+        }
+        if(!kind.equals("text") && !kind.equals("json")){
+            throw new IllegalArgumentException("Unknown corpus " + kind);
+        }
+        StringBuilder text = new StringBuilder(size+200);
+        long timestamp = 1700000000000L;
+        String[] levels = {"INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR"};
+        while(text.length() < size){
+            if(kind.equals("json")){
+                timestamp += random.nextInt(1000);
+                text.append("{\"ts\":").append(timestamp).append(",\"level\":\"").append(levels[random.nextInt(levels.length)])
+                        .append("\",\"user\":").append(random.nextInt(5000)).append(",\"msg\":\"")
+                        .append(WORDS[(int)(WORDS.length*Math.pow(random.nextDouble(), 3))]).append(' ')
+                        .append(WORDS[random.nextInt(WORDS.length)]).append("\",\"ms\":").append(random.nextInt(800)).append("}\n");
+            }
+            else{
+                // Zipf-like word choice with occasional punctuation
+                text.append(WORDS[(int)(WORDS.length*Math.pow(random.nextDouble(), 3))]);
+                text.append(random.nextInt(12) == 0 ? ". " : " ");
+            }
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+        return Arrays.copyOf(bytes, size);
+    }
+    // data cut into blocks of blockSize bytes, the last one shorter
+    static List<byte[]> blocks(byte[] data, int blockSize){
+        List<byte[]> blocks = new ArrayList<>();
+        for(int i=0; i<data.length; i+=blockSize){
+            blocks.add(Arrays.copyOfRange(data, i, Math.min(data.length, i+blockSize)));
+        }
+        return blocks;
+    }
+    // A temporary file holding data, deleted when the JVM exits
+    static File file(String prefix, byte[] data) throws Exception {
+        File file = File.createTempFile(prefix, ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), data);
+        return file;
+    }
+}
@@ -0,0 +1,73 @@
+package huffman;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The byte[]-keyed CodeWriter path against the packed encoder on the same blocks; run with -prof gc for the
+// allocation per symbol
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+    @Param({"1", "2", "3", "4"})
+    int n;
+    @Param({"text", "random"})
+    String corpus;
+    // Corpus size in MB
+    @Param({"4"})
+    int size;
+
+    Compressor compressor;
+    List<byte[]> blocks;
+    byte[] out;
+
+    @Setup
+    public void setup(){
+        byte[] data = Corpora.corpus(corpus, size << 20);
+        compressor = new Compressor(n);
+        compressor.captureFreq(data);
+        compressor.constructCanonicalCodes();
+        compressor.packedEncoder = false;
+        blocks = Corpora.blocks(data, compressor.getBlockSize());
+        out = new byte[compressor.maxCompressedSize(compressor.getBlockSize())];
+        for(byte[] block : blocks){
+            byte[] expected = compressor.compress(block, block.length*8);
+            int size = compressor.encode(block, block.length, out);
+            if(!Arrays.equals(expected, 0, expected.length, out, 0, size)){
+                throw new IllegalStateException("Encoders disagree");
+            }
+        }
+    }
+
+    @Benchmark
+    public int codeWriter(){
+        int size = 0;
+        for(byte[] block : blocks){
+            size += compressor.compress(block, block.length*8).length;
+        }
+        return size;
+    }
+    @Benchmark
+    public int packed(){
+        int size = 0;
+        for(byte[] block : blocks){
+            size += compressor.encode(block, block.length, out);
+        }
+        return size;
+    }
+}
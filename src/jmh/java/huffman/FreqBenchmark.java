@@ -0,0 +1,54 @@
+package huffman;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The frequency pass of compressFile over a file, on 1 or more threads
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FreqBenchmark {
+    @Param({"1", "2", "4"})
+    int threads;
+    @Param({"1", "2", "4"})
+    int n;
+    @Param({"text", "random"})
+    String corpus;
+    // Corpus size in MB
+    @Param({"32"})
+    int size;
+
+    File file;
+
+    @Setup
+    public void setup() throws Exception {
+        file = Corpora.file("hc-bench-freq", Corpora.corpus(corpus, size << 20));
+    }
+    @TearDown
+    public void tearDown(){
+        file.delete();
+    }
+
+    @Benchmark
+    public Compressor captureFileFreq() throws Exception {
+        Compressor compressor = new Compressor(n, file.getPath(), "", "");
+        compressor.threads = threads;
+        compressor.captureFileFreq();
+        return compressor;
+    }
+}
@@ -0,0 +1,78 @@
+package huffman;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Block coding speed of every LZ77 level; setup prints each level's ratio
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Lz77Benchmark {
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9"})
+    int level;
+    @Param({"text", "json"})
+    String corpus;
+    // Corpus size in MB
+    @Param({"4"})
+    int size;
+
+    Compressor compressor;
+    List<byte[]> blocks;
+    List<byte[]> compressedBlocks;
+    byte[] decompressed;
+
+    @Setup
+    public void setup(){
+        byte[] data = Corpora.corpus(corpus, size << 20);
+        compressor = new Compressor(1);
+        compressor.lz77 = true;
+        compressor.lzLevel = level;
+        blocks = Corpora.blocks(data, compressor.getBlockSize());
+        compressedBlocks = new ArrayList<>();
+        long compressedSize = 0;
+        decompressed = new byte[compressor.getBlockSize()];
+        for(byte[] block : blocks){
+            byte[] compressed = compressor.compress(block, block.length*8);
+            compressedBlocks.add(compressed);
+            compressedSize += compressed.length+8;
+            compressor.decompress(compressed, compressed.length, decompressed, 0, block.length);
+            if(!Arrays.equals(decompressed, 0, block.length, block, 0, block.length)){
+                throw new IllegalStateException("Round trip failed at level " + level);
+            }
+        }
+        System.out.printf("%nlevel %d: ratio %.4f%n", level, (double)compressedSize/data.length);
+    }
+
+    @Benchmark
+    public int compress(){
+        int size = 0;
+        for(byte[] block : blocks){
+            size += compressor.compress(block, block.length*8).length;
+        }
+        return size;
+    }
+    @Benchmark
+    public byte[] decompress(){
+        for(int i=0; i<blocks.size(); i++){
+            byte[] block = compressedBlocks.get(i);
+            compressor.decompress(block, block.length, decompressed, 0, blocks.get(i).length);
+        }
+        return decompressed;
+    }
+}
@@ -0,0 +1,88 @@
+package huffman;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// compressFile and decompressFile with channel reads and with mapped I/O, from the page cache or (cold) with the
+// input and compressed files evicted before every call. Eviction runs GNU dd, which syncs the file and asks the
+// kernel to drop its pages (posix_fadvise DONTNEED) without root, so cold runs need Linux; each call takes long
+// enough for a per-invocation setup.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappedIOBenchmark {
+    @Param({"false", "true"})
+    boolean mapped;
+    @Param({"1", "2"})
+    int n;
+    @Param({"text"})
+    String corpus;
+    // Corpus size in MB
+    @Param({"32"})
+    int size;
+    @Param({"false", "true"})
+    boolean cold;
+
+    File file;
+    File compressed;
+    File restored;
+
+    @Setup
+    public void setup() throws Exception {
+        file = Corpora.file("hc-bench-io", Corpora.corpus(corpus, size << 20));
+        compressed = new File(file.getPath() + ".hc");
+        restored = new File(file.getPath() + ".out");
+        compressFile();
+    }
+    @Setup(Level.Invocation)
+    public void evict() throws Exception {
+        if(cold){
+            evict(file);
+            evict(compressed);
+        }
+    }
+    private static void evict(File file) throws Exception {
+        Process dd = new ProcessBuilder("dd", "of=" + file.getPath(), "oflag=nocache", "conv=notrunc,fdatasync", "count=0", "status=none")
+                .redirectErrorStream(true).start();
+        String output = new String(dd.getInputStream().readAllBytes());
+        if(dd.waitFor() != 0){
+            throw new IllegalStateException("Could not evict " + file + " from the page cache: " + output);
+        }
+    }
+    @TearDown
+    public void tearDown(){
+        file.delete();
+        compressed.delete();
+        restored.delete();
+    }
+
+    @Benchmark
+    public void compressFile() throws Exception {
+        Compressor compressor = new Compressor(n, file.getPath(), restored.getPath(), compressed.getPath());
+        compressor.memoryMapped = mapped;
+        compressor.compressFile();
+    }
+    @Benchmark
+    public void decompressFile() throws Exception {
+        Compressor decompressor = new Compressor(1, "", restored.getPath(), compressed.getPath());
+        decompressor.compressedFile = compressed.getPath();
+        decompressor.memoryMapped = mapped;
+        decompressor.decompressFile();
+    }
+}
@@ -0,0 +1,73 @@
+package huffman;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The table-building stages with each map family forced by useMaps. For n <= 2, captureFreq with "array" maps is
+// the Histogram kernel and with "long" maps a pack() and an inc() per symbol, as larger n count.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapsBenchmark {
+    @Param({"array", "long", "hash"})
+    String maps;
+    @Param({"1", "2"})
+    int n;
+    @Param({"text", "random"})
+    String corpus;
+    // Corpus size in MB
+    @Param({"4"})
+    int size;
+
+    byte[] data;
+    Compressor compressor;
+    Compressor.Node tree;
+
+    @Setup
+    public void setup(){
+        data = Corpora.corpus(corpus, size << 20);
+        compressor = new Compressor(n);
+        compressor.useMaps(maps);
+        compressor.captureFreq(data);
+        tree = compressor.constructHuffmanTree();
+        compressor.constructCanonicalCodeMap();
+    }
+
+    @Benchmark
+    public Compressor captureFreq(){
+        Compressor c = new Compressor(n);
+        c.useMaps(maps);
+        c.captureFreq(data);
+        return c;
+    }
+    @Benchmark
+    public Object constructHuffmanTree(){
+        return compressor.constructHuffmanTree();
+    }
+    @Benchmark
+    public void constructCodeMap(){
+        compressor.constructCodeMap(tree, 0, 0);
+    }
+    @Benchmark
+    public void constructCanonicalCodeMap(){
+        compressor.root = tree;
+        compressor.constructCanonicalCodeMap();
+    }
+    @Benchmark
+    public void constructCanonicalCodes(){
+        compressor.constructCanonicalCodes();
+    }
+}
@@ -0,0 +1,69 @@
+package huffman;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// compressFile and decompressFile in sequence on one thread (coders=0) and pipelined with 1 or more coders
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({"0", "1", "2", "4"})
+    int coders;
+    @Param({"2"})
+    int n;
+    @Param({"text"})
+    String corpus;
+    // Corpus size in MB
+    @Param({"32"})
+    int size;
+
+    File file;
+    File compressed;
+    File restored;
+
+    @Setup
+    public void setup() throws Exception {
+        file = Corpora.file("hc-bench-pipeline", Corpora.corpus(corpus, size << 20));
+        compressed = new File(file.getPath() + ".hc");
+        restored = new File(file.getPath() + ".out");
+        compressFile();
+    }
+    @TearDown
+    public void tearDown(){
+        file.delete();
+        compressed.delete();
+        restored.delete();
+    }
+
+    @Benchmark
+    public void compressFile() throws Exception {
+        Compressor compressor = new Compressor(n, file.getPath(), restored.getPath(), compressed.getPath());
+        compressor.pipelined = coders > 0;
+        compressor.threads = Math.max(1, coders);
+        compressor.compressFile();
+    }
+    @Benchmark
+    public void decompressFile() throws Exception {
+        Compressor decompressor = new Compressor(1, "", restored.getPath(), compressed.getPath());
+        decompressor.compressedFile = compressed.getPath();
+        decompressor.pipelined = coders > 0;
+        decompressor.threads = Math.max(1, coders);
+        decompressor.decompressFile();
+    }
+}
@@ -0,0 +1,177 @@
+package huffman;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Every stage of compressing and decompressing a corpus, one benchmark per stage, with the default maps. Each
+// operation takes the whole corpus through its stage, and the bytes counter reports that as bytes per second.
+// MapsBenchmark compares the map families on the table-building stages.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StagesBenchmark {
+    @Param({"text", "json", "binary", "random", "skewed"})
+    String corpus;
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8"})
+    int n;
+    // Corpus size in MB
+    @Param({"4"})
+    int size;
+
+    byte[] data;
+    Compressor compressor;
+    Compressor.Node tree;
+    List<byte[]> blocks;
+    List<byte[]> compressedBlocks;
+    Compressor interleaved;
+    List<byte[]> interleavedBlocks;
+    byte[] map;
+    byte[] out;
+    byte[] decompressed;
+    File file;
+    File compressed;
+    File restored;
+
+    @Setup
+    public void setup() throws Exception {
+        data = Corpora.corpus(corpus, size << 20);
+        compressor = new Compressor(n);
+        compressor.captureFreq(data);
+        tree = compressor.constructHuffmanTree();
+        compressor.constructCanonicalCodeMap();
+        blocks = Corpora.blocks(data, compressor.getBlockSize());
+        compressedBlocks = compress(compressor);
+        interleaved = new Compressor(n);
+        interleaved.captureFreq(data);
+        interleaved.constructCanonicalCodes();
+        interleaved.interleaved = true;
+        interleavedBlocks = compress(interleaved);
+        byte[] header = compressor.writeMap();
+        map = Arrays.copyOfRange(header, 8, header.length);
+        out = new byte[compressor.maxCompressedSize(compressor.getBlockSize())];
+        decompressed = new byte[compressor.getBlockSize()];
+        decompress(compressor, compressedBlocks, true);
+        decompress(interleaved, interleavedBlocks, true);
+        file = Corpora.file("hc-bench-" + corpus, data);
+        compressed = new File(file.getPath() + ".hc");
+        restored = new File(file.getPath() + ".out");
+    }
+    private List<byte[]> compress(Compressor coder){
+        List<byte[]> compressedBlocks = new ArrayList<>();
+        for(byte[] block : blocks){
+            compressedBlocks.add(coder.compress(block, block.length*8));
+        }
+        return compressedBlocks;
+    }
+    // Decodes every block, checking the result against the input if asked to
+    private byte[] decompress(Compressor coder, List<byte[]> compressedBlocks, boolean check){
+        for(int i=0; i<blocks.size(); i++){
+            byte[] block = compressedBlocks.get(i);
+            byte[] expected = blocks.get(i);
+            coder.decompress(block, block.length, decompressed, 0, expected.length);
+            if(check && !Arrays.equals(decompressed, 0, expected.length, expected, 0, expected.length)){
+                throw new IllegalStateException("Round trip failed");
+            }
+        }
+        return decompressed;
+    }
+    @TearDown
+    public void tearDown(){
+        file.delete();
+        compressed.delete();
+        restored.delete();
+    }
+    // Corpus bytes taken through a stage, reported per second next to the operations
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Benchmark
+    public Compressor captureFreq(Bytes bytes){
+        Compressor c = new Compressor(n);
+        c.captureFreq(data);
+        bytes.bytes += data.length;
+        return c;
+    }
+    @Benchmark
+    public Object constructHuffmanTree(Bytes bytes){
+        bytes.bytes += data.length;
+        return compressor.constructHuffmanTree();
+    }
+    @Benchmark
+    public void constructCodeMap(Bytes bytes){
+        compressor.constructCodeMap(tree, 0, 0);
+        bytes.bytes += data.length;
+    }
+    @Benchmark
+    public void constructCanonicalCodeMap(Bytes bytes){
+        compressor.root = tree;
+        compressor.constructCanonicalCodeMap();
+        bytes.bytes += data.length;
+    }
+    @Benchmark
+    public void constructCanonicalCodes(Bytes bytes){
+        compressor.constructCanonicalCodes();
+        bytes.bytes += data.length;
+    }
+    @Benchmark
+    public byte[] writeMap(Bytes bytes){
+        bytes.bytes += data.length;
+        return compressor.writeMap();
+    }
+    @Benchmark
+    public Compressor readMap(Bytes bytes){
+        Compressor c = new Compressor(n);
+        c.readMap(map);
+        bytes.bytes += data.length;
+        return c;
+    }
+    @Benchmark
+    public int compress(Bytes bytes){
+        int size = 0;
+        for(byte[] block : blocks){
+            size += compressor.encode(block, block.length, out);
+        }
+        bytes.bytes += data.length;
+        return size;
+    }
+    @Benchmark
+    public byte[] decompress(Bytes bytes){
+        bytes.bytes += data.length;
+        return decompress(compressor, compressedBlocks, false);
+    }
+    @Benchmark
+    public byte[] decompressInterleaved(Bytes bytes){
+        bytes.bytes += data.length;
+        return decompress(interleaved, interleavedBlocks, false);
+    }
+    @Benchmark
+    public void roundTrip(Bytes bytes) throws Exception {
+        Compressor c = new Compressor(n, file.getPath(), restored.getPath(), compressed.getPath());
+        c.compressedFile = compressed.getPath();
+        c.compressFile();
+        c.decompressFile();
+        bytes.bytes += data.length;
+    }
+}
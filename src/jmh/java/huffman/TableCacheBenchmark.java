@@ -0,0 +1,93 @@
+package huffman;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Round trips a set of small files of the same kind through compressFile/decompressFile, without and with a
+// TableCache shared by all of them
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableCacheBenchmark {
+    @Param({"false", "true"})
+    boolean cached;
+    @Param({"2"})
+    int n;
+    @Param({"json"})
+    String corpus;
+    @Param({"64"})
+    int files;
+    // File size in KB
+    @Param({"16"})
+    int size;
+
+    File[] inputs;
+    File compressed;
+    File restored;
+    Compressor.TableCache cache;
+
+    @Setup
+    public void setup() throws Exception {
+        // consecutive slices of one corpus, so the files share their statistics without being equal
+        byte[] data = Corpora.corpus(corpus, files*size << 10);
+        inputs = new File[files];
+        for(int i=0; i<files; i++){
+            inputs[i] = Corpora.file("hc-bench-cache", Arrays.copyOfRange(data, i*size << 10, (i+1)*size << 10));
+        }
+        compressed = File.createTempFile("hc-bench-cache", ".hc");
+        restored = File.createTempFile("hc-bench-cache", ".out");
+        cache = cached ? new Compressor.TableCache(64L << 20) : null;
+        for(File input : inputs){
+            roundTrip(input);
+            if(!Arrays.equals(Files.readAllBytes(input.toPath()), Files.readAllBytes(restored.toPath()))){
+                throw new IllegalStateException("Round trip failed for " + input);
+            }
+        }
+    }
+    private void roundTrip(File input) throws Exception {
+        Compressor compressor = new Compressor(n, input.getPath(), restored.getPath(), compressed.getPath());
+        compressor.compressedFile = compressed.getPath();
+        compressor.tableCache = cache;
+        compressor.compressFile();
+        Compressor decompressor = new Compressor(1, "", restored.getPath(), compressed.getPath());
+        decompressor.compressedFile = compressed.getPath();
+        decompressor.tableCache = cache;
+        decompressor.decompressFile();
+    }
+    @TearDown
+    public void tearDown(){
+        if(cache != null){
+            System.out.println();
+            System.out.println(cache);
+        }
+        for(File input : inputs){
+            input.delete();
+        }
+        compressed.delete();
+        restored.delete();
+    }
+
+    @Benchmark
+    public void roundTrip() throws Exception {
+        for(File input : inputs){
+            roundTrip(input);
+        }
+    }
+}
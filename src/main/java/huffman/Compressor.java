@@ -0,0 +1,4489 @@
+package huffman;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+    public class Compressor{
+        private static final int BUFFER_SIZE_LIMIT = 1<<17; // 128KB, the default block size
+        // Range of setBlockSize. Block frames hold int lengths, which stay far from overflow below 64MB.
+        public static final int MIN_BLOCK_SIZE = 1<<14;
+        public static final int MAX_BLOCK_SIZE = 1<<26;
+        // Largest compressed block any writer produces: an escaped n=1 symbol costs an escape code and a fallback code
+        // of at most 56 bits each, an adaptive table lists at most one symbol per input byte, and the jump table,
+        // the table's length counts and the padding fit in the last 4KB
+        private static final int MAX_FRAME_SIZE = 15*MAX_BLOCK_SIZE+(1<<12);
+        // Headers since version 2 start with 0xFF 'H' 'C' <version>; legacy headers start with a positive map size
+        private static final int FORMAT_MAGIC = 0xFF484300;
+        private static final int FORMAT_VERSION = 2;
+        // Header flags
+        private static final int FLAG_BLOCK_INDEX = 1;
+        // Every block is STREAMS bitstreams; symbol i of a block is in stream i % STREAMS. The block payload starts
+        // with the byte lengths of the first STREAMS-1 streams as ints, then the streams back to back.
+        private static final int FLAG_INTERLEAVED = 2;
+        private static final int STREAMS = 4;
+        // Blocks are LZ77 tokens coded with their own tables (see Lz77); the header's code table is empty
+        private static final int FLAG_LZ77 = 4;
+        // Each block starts with a byte that is 1 when its own code table follows, 0 when it reuses the table of the
+        // block before; the header's table is empty
+        private static final int FLAG_ADAPTIVE = 8;
+        // The code table is a shared Codebook; the header holds its int id in place of the table
+        private static final int FLAG_CODEBOOK = 16;
+        // Only the most frequent symbols have codes of their own. The code table is followed by the int index of the
+        // escape symbol in it and an n=1 fallback code table; an escape code is followed by the symbol's bytes, each
+        // coded with the fallback table.
+        private static final int FLAG_ESCAPE = 32;
+        // Codebook files: magic ("HCCB"), id, n, code table
+        private static final int CODEBOOK_MAGIC = 0x48434342;
+        // {hash chain depth, match length that ends the search, lazy matching} for LZ77 levels 1..9
+        private static final int[][] LZ_LEVELS = {
+            {4, 16, 0}, {8, 32, 0}, {16, 64, 0}, {32, 64, 1}, {64, 128, 1}, {128, 256, 1}, {256, 512, 1}, {1024, 4096, 1}, {4096, 1<<16, 1}
+        };
+        // The block index trailer ends with its entry count, its offset and this magic ("HCIX")
+        private static final int INDEX_MAGIC = 0x48434958;
+        private static final int INDEX_ENTRY_SIZE = 8+4+4;
+        private static final int INDEX_TRAILER_SIZE = 4+8+4;
+        // Mapped I/O works on windows of at most 1GB (rounded down to whole blocks for the input), so files over 2GB map fine
+        private static final long MAP_WINDOW = 1L<<30;
+        private static final int OUTPUT_MAP_WINDOW = 1<<26;
+        private int BUFFER_SIZE;
+
+        String inputFile = "input.txt";
+        String outputFile = "output.bin";
+        String compressedFile = "output.bin";
+        String decompressedFile = "decompressed.txt";
+
+        private class ByteArrayWrapper {
+            private byte[] data;
+
+            ByteArrayWrapper(byte[] data) {
+                this.data = data;
+            }
+
+            @Override
+            public boolean equals(Object obj) {
+                ByteArrayWrapper that = (ByteArrayWrapper) obj;
+                return Arrays.equals(data, that.data);
+            }
+
+            @Override
+            public int hashCode() {
+                return Arrays.hashCode(data);
+            }
+
+            public byte[] getData() {
+                return data;
+            }
+            public void setData(byte[] data){
+                this.data = data;
+            }
+        }
+        private int n;
+        Node root;
+        FreqMap freq;
+        public BytesToCodeMap bytesToCode;
+        public CodeToBytesMap codeToBytes;
+        private CodeReader reader;
+        private PackedCodeTable packedTable;
+        // Encode through PackedCodeTable and a 64-bit bit accumulator when n <= 8
+        boolean packedEncoder = true;
+        long fileSize;
+        boolean canonical = true;
+        // Longest code allowed, 0 for unlimited; limited codes are always assigned canonically
+        int maxCodeLength = 0;
+        // Payload growth caused by the length limit, relative to unconstrained Huffman codes
+        double lengthLimitCost;
+        // Blocks are encoded on this many threads; at most maxInFlight blocks (default 2 per thread) are held in memory
+        int threads = 1;
+        int maxInFlight = 0;
+        // Read and write files through FileChannel.map instead of channel reads into heap buffers
+        boolean memoryMapped = false;
+        // Run reading, coding (on `threads` threads) and writing as concurrent stages; see Pipeline
+        boolean pipelined = false;
+        // Compress with this pretrained table instead of one built from the file, and decompress files that name it
+        Codebook codebook;
+        // Where built tables are looked up before building them; null to always build
+        TableCache tableCache;
+        // Counters of the current (or last) compressFile/decompressFile call
+        CompressionStats stats = new CompressionStats("none");
+        int version = FORMAT_VERSION;
+        int flags;
+        // Whether compressFile appends a block index; only version 2 headers can announce one
+        boolean writeBlockIndex = true;
+        // Write (or, once a header is read, whether the file has) interleaved blocks; needs canonical codes and n <= 8
+        boolean interleaved = false;
+        // Same for LZ77 blocks; lzLevel trades speed (1) for ratio (9)
+        boolean lz77 = false;
+        int lzLevel = 6;
+        private Lz77 lz;
+        // Same for per-block tables, which make compression a single pass; needs canonical codes and n <= 8
+        boolean adaptive = false;
+        // Give codes to at most topK symbols and escape the rest (FLAG_ESCAPE), TOP_K_AUTO to pick K from the counts,
+        // 0 for a code per symbol; needs canonical codes and n <= 8, is rejected with interleaved blocks, and is dropped
+        // for LZ77, adaptive or codebook files. An explicit K counts symbols in a SummaryFreqMap of 4K entries, and
+        // TOP_K_AUTO, which keeps at most TOP_K_AUTO_LIMIT symbols, in one of 4*TOP_K_AUTO_LIMIT entries.
+        int topK = 0;
+        static final int TOP_K_AUTO = -1;
+        static final int TOP_K_AUTO_LIMIT = 1<<16;
+        // The fallback table of an escaped file, and the escape symbol (packed, and its index in sortedSymbols)
+        private Compressor escapeTables;
+        private long escapeKey;
+        private int escapeSymbol;
+        // The table of the last block that carried one, set aside while the next block's table is built
+        private PackedCodeTable blockTable;
+        private BytesToCodeMap blockCodes;
+        private int[] blockLengthCounts;
+        private byte[] blockSymbols;
+        // Blocks of the last adaptive compressFile that carried a table
+        long blockTables;
+        // {compressed offset of the block's frame, compressed length, decompressed length} per block
+        List<long[]> blockIndex = new ArrayList<>();
+        // Canonical table: number of codes of each length and the symbols sorted by (length, value)
+        int[] lengthCounts;
+        byte[] sortedSymbols;
+
+        public void printMap(){
+            bytesToCode.printMap();
+        }
+        // Bytes of input per block (rounded down to whole symbols): larger blocks cost fewer frames and give the
+        // coders longer runs, smaller ones more parallelism and less memory per block in flight
+        public void setBlockSize(int blockSize){
+            if(blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE){
+                throw new IllegalArgumentException("Block size must be between " + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE + " bytes");
+            }
+            BUFFER_SIZE = blockSize/n*n;
+        }
+        public int getBlockSize(){
+            return BUFFER_SIZE;
+        }
+
+        public Compressor(int n){
+            this.n = n;
+            bytesToCode = newBytesToCodeMap();
+            codeToBytes = newCodeToBytesMap();
+            freq = newFreqMap();
+            BUFFER_SIZE = BUFFER_SIZE_LIMIT/n*n;
+        }
+        public Compressor(int n, String inputFile, String decompressedFile, String outputFile){
+            this.n = n;
+            bytesToCode = newBytesToCodeMap();
+            codeToBytes = newCodeToBytesMap();
+            freq = newFreqMap();
+            BUFFER_SIZE = BUFFER_SIZE_LIMIT/n*n;
+            this.inputFile = inputFile;
+            this.decompressedFile = decompressedFile;
+            this.outputFile = outputFile;
+        }
+        class Node implements Comparable<Node>{
+            int val;
+            Node left;
+            Node right;
+            Node parent;
+            byte[] bytes;
+            Node(int val){
+                this.val = val;
+            }
+            Node(int val, byte[] bytes){
+                this.val = val;
+                this.bytes = bytes;
+            }
+            Node(Node left, Node right, int val){
+                this.left = left;
+                this.right = right;
+                this.val = val;
+            }
+            Node(Node parent){
+                this.parent = parent;
+            }
+            Node(Node left, Node right, Node parent){
+                this.left = left;
+                this.right = right;
+                this.parent = parent;
+            }
+
+            @Override
+            public int compareTo(Node o) {
+                return this.val-o.val;
+            }
+
+            public int printTree(int n){
+                System.out.print("node " + n + ": " + val);
+                if(left != null){
+                    System.out.print(", children of " + n + ": " + left.val + " " + right.val);
+                    System.out.println();
+                    int m = left.printTree(n+1);
+                    right.printTree(m+1);
+                }
+                else{
+                    System.out.print(", leaf node: " + Arrays.toString(bytes) + " (" + Arrays.hashCode(bytes)+")");
+                    System.out.println();
+                }
+                return n;
+
+
+            }
+        }
+
+        // Direct arrays up to n = 2 (65536 entries), packed long keys up to n = 8, byte[] keys beyond that
+        private FreqMap newFreqMap(){
+            return n <= 2 ? new ArrayFreqMap() : n <= 8 ? new LongFreqMap() : new HashFreqMap();
+        }
+        BytesToCodeMap newBytesToCodeMap(){
+            return n <= 2 ? new ArrayBytesToCodeMap() : n <= 8 ? new LongBytesToCodeMap() : new HashBytesToCodeMap();
+        }
+        private CodeToBytesMap newCodeToBytesMap(){
+            return n <= 8 ? new LongCodeToBytesMap() : new HashCodeToBytesMap();
+        }
+        // Forces one map family ("array" for n <= 2, "long" for n <= 8, or "hash") so benchmarks can compare them
+        void useMaps(String kind){
+            if(kind.equals("array")){
+                freq = new ArrayFreqMap();
+                bytesToCode = new ArrayBytesToCodeMap();
+            }
+            else if(kind.equals("long")){
+                freq = new LongFreqMap();
+                bytesToCode = new LongBytesToCodeMap();
+                codeToBytes = new LongCodeToBytesMap();
+            }
+            else if(kind.equals("hash")){
+                freq = new HashFreqMap();
+                bytesToCode = new HashBytesToCodeMap();
+                codeToBytes = new HashCodeToBytesMap();
+            }
+        }
+
+        // Abstract Maps
+        abstract class FreqMap {
+            public abstract boolean containsKey(byte[] bytes);
+            public abstract void put(byte[] bytes, int val);
+            public abstract void inc(byte[] bytes);
+            public abstract Set<byte[]> keySet();
+            public abstract long get(byte[] bytes);
+            public abstract void add(byte[] bytes, long count);
+            // Counts a symbol packed by pack(); only called when n <= 8
+            public void inc(long key){
+                inc(unpack(key));
+            }
+            public void add(long key, long count){
+                add(unpack(key), count);
+            }
+            public void merge(FreqMap other){
+                for(byte[] bytes : other.keySet()){
+                    add(bytes, other.get(bytes));
+                }
+            }
+            // The non-zero counts, in no particular order
+            public long[] counts(){
+                Set<byte[]> keys = keySet();
+                long[] counts = new long[keys.size()];
+                int k = 0;
+                for(byte[] bytes : keys){
+                    counts[k++] = get(bytes);
+                }
+                return counts;
+            }
+            // The symbols of counts() packed by pack(), in the same order; only called when n <= 8
+            public long[] packedKeys(){
+                Set<byte[]> keys = keySet();
+                long[] packed = new long[keys.size()];
+                int k = 0;
+                for(byte[] bytes : keys){
+                    packed[k++] = pack(bytes, 0, n);
+                }
+                return packed;
+            }
+
+        }
+        private abstract class CodeToBytesMap {
+            public abstract boolean containsKey(long key);
+            public abstract void put(long key, byte[] val);
+            public abstract byte[] get(long key);
+            public abstract Set<Long> keySet();
+
+        }
+        private abstract class BytesToCodeMap {
+            public abstract boolean containsKey(byte[] bytes);
+            public abstract Set<byte[]> keySet();
+            public abstract void put(byte[] bytes, long val);
+            public abstract long get(byte[] bytes);
+            public abstract void printMap();
+            // Stores the code of a symbol packed by pack(); only called when n <= 8
+            public void put(long key, long val){
+                put(unpack(key), val);
+            }
+            // Makes room for `size` codes up front
+            public void reserve(int size){
+            }
+            // The symbols with a code, packed by pack(), and their codes in the same order; only called when n <= 8
+            public long[] packedKeys(){
+                Set<byte[]> keys = keySet();
+                long[] packed = new long[keys.size()];
+                int k = 0;
+                for(byte[] bytes : keys){
+                    packed[k++] = pack(bytes, 0, n);
+                }
+                return packed;
+            }
+            public long[] codes(){
+                Set<byte[]> keys = keySet();
+                long[] codes = new long[keys.size()];
+                int k = 0;
+                for(byte[] bytes : keys){
+                    codes[k++] = get(bytes);
+                }
+                return codes;
+            }
+        }
+
+        // Concrete Maps
+        private class ArrayCodeToBytesMap extends CodeToBytesMap {
+            // Assumes code is <= 26 bits, n <= 8 , should be switched to another implementation otherwise
+            private int CODE_SIZE = 20;
+            private long[] map;
+            private boolean[] contains;
+
+            ArrayCodeToBytesMap(){
+                map = new long[1<<CODE_SIZE]; // <64MB
+                contains = new boolean[1<<CODE_SIZE];
+            }
+            ArrayCodeToBytesMap(int codeSize){
+                this.CODE_SIZE = codeSize;
+                map = new long[1<<CODE_SIZE]; // <64MB
+                contains = new boolean[1<<CODE_SIZE];
+            }
+            public boolean containsKey(long key){
+                return contains[(int)(key >> (62-CODE_SIZE))]; // 6-bits remain for the index, CODE_SIZE-6 bits for the map
+            }
+            public void put(long key, byte[] val){
+                long bytes = 0;
+                for(byte b : val){
+                    bytes <<= 8;
+                    bytes |= b & 0xFF;
+                }
+                map[(int)(key >> (62-CODE_SIZE))] = bytes;
+                contains[(int)(key >> (62-CODE_SIZE))] = true;
+            }
+            public byte[] get(long key){
+                long val = map[(int)(key >> (62-CODE_SIZE))];
+                byte[] bytes = new byte[n];
+                for(int i=0; i<n; i++){
+                    bytes[i] = (byte)(val >> (8*(n-i-1)));
+                }
+                return bytes;
+
+            }
+            public Set<Long> keySet(){
+                Set<Long> set = new HashSet<>();
+                for(int i=0; i<map.length; i++){
+                    if(contains[i]){
+                        set.add((long)i);
+                    }
+                }
+                return set;
+            }
+        }
+        private class HashCodeToBytesMap extends CodeToBytesMap {
+            private Map<Long, byte[]> map;
+            HashCodeToBytesMap(){
+                map = new HashMap<>();
+            }
+            public boolean containsKey(long key){
+                return map.containsKey(key);
+            }
+            public void put(long key, byte[] val){
+                map.put(key, val);
+            }
+            public byte[] get(long key){
+                return map.get(key);
+            }
+            public Set<Long> keySet(){
+                return map.keySet();
+            }
+
+        }
+        private class HashBytesToCodeMap extends BytesToCodeMap {
+            private ByteArrayWrapper wrapper;
+            private Set<byte[]> keySet;
+            private Map<ByteArrayWrapper, Long> map;
+            HashBytesToCodeMap(){
+                map = new HashMap<>();
+                keySet = new HashSet<>();
+                wrapper = new ByteArrayWrapper(new byte[n]);
+            }
+            public Set<byte[]> keySet(){
+                return keySet;
+            }
+            // Lookups use their own wrapper so that several encoder threads can share the map
+            public boolean containsKey(byte[] bytes){
+                return map.containsKey(new ByteArrayWrapper(bytes));
+            }
+            public void put(byte[] bytes, long val){
+                ByteArrayWrapper newWrapper = new ByteArrayWrapper(bytes);
+                map.put(newWrapper, val);
+                keySet.add(bytes);
+            }
+            public long get(byte[] bytes){
+                return map.get(new ByteArrayWrapper(bytes));
+            }
+            public void printMap() {
+                // format hex
+                for (byte[] key : keySet()) {
+                    System.out.println("(" + key + ") "
+                            + Long.toHexString(map.get(key))
+                            + " " + map.get(key));
+                }
+            }
+        }
+        private class ArrayBytesToCodeMap extends BytesToCodeMap {
+            private long[] map;
+            private boolean[] contains;
+
+            ArrayBytesToCodeMap(){
+                map = new long[1<<8*n];
+                contains = new boolean[1<<8*n];
+            }
+            public boolean containsKey(byte[] bytes){
+                int i = 0;
+                for(byte b : bytes){
+                    i |= b & 0xFF;
+                    i <<= 8;
+                }
+                i >>= 8;
+                return contains[i];
+            }
+            public void put(byte[] bytes, long val){
+                int i = 0;
+                for(byte b : bytes){
+                    i |= b & 0xFF;
+                    i <<= 8;
+                }
+                i >>= 8;
+                map[i] = val;
+                contains[i] = true;
+            }
+            public void put(long key, long val){
+                map[(int)key] = val;
+                contains[(int)key] = true;
+            }
+            public long[] packedKeys(){
+                return IntStream.range(0, map.length).filter(i -> contains[i]).asLongStream().toArray();
+            }
+            public long[] codes(){
+                return IntStream.range(0, map.length).filter(i -> contains[i]).mapToLong(i -> map[i]).toArray();
+            }
+            public long get(byte[] bytes){
+                int i = 0;
+                for(byte b : bytes){
+                    i |= b & 0xFF;
+                    i <<= 8;
+                }
+                i >>= 8;
+                return map[i];
+            }
+            public Set<byte[]> keySet(){
+                Set<byte[]> set = new HashSet<>();
+                for(int i=0; i<map.length; i++){
+                    if(map[i] != 0){
+                        byte[] bytes = new byte[n];
+                        for(int j=0; j<n; j++){
+                            bytes[j] = (byte)(i>>(8*(n-j-1)));
+                        }
+                        set.add(bytes);
+                    }
+                }
+                return set;
+            }
+            public void printMap() {
+                // format hex
+                for (int i = 0; i < map.length; i++) {
+                    if (contains[i]) {
+                        byte[] bytes = new byte[n];
+                        for (int j = 0; j < n; j++) {
+                            bytes[j] = (byte) (i >> (8 * (n - j - 1)));
+                        }
+                        System.out.println("(" + Arrays.hashCode(bytes) + ") "
+                                + Long.toHexString(map[i])
+                                + " " + map[i]);
+                    }
+                }
+            }
+        }
+        private class ArrayFreqMap extends FreqMap {
+            private long[] map;
+            ArrayFreqMap(){
+                map = new long[1<<(8*n)];
+            }
+            public boolean containsKey(byte[] bytes){
+                return true;
+            }
+            public void put(byte[] bytes, int val){
+                int i = 0;
+                for(byte b : bytes){
+                    i |= b & 0xFF;
+                    i <<= 8;
+                }
+                i >>= 8;
+                map[i] = val;
+            }
+            public void inc(byte[] bytes){
+                int i = 0;
+                for(byte b : bytes){
+                    i |= b & 0xFF;
+                    i <<= 8;
+                }
+                i >>= 8;
+                map[i]++;
+            }
+            public void inc(long key){
+                map[(int)key]++;
+            }
+            public void add(long key, long count){
+                map[(int)key] += count;
+            }
+            public void merge(FreqMap other){
+                if(!(other instanceof ArrayFreqMap)){
+                    super.merge(other);
+                    return;
+                }
+                long[] counts = ((ArrayFreqMap)other).map;
+                for(int i=0; i<map.length; i++){
+                    map[i] += counts[i];
+                }
+            }
+            public long[] counts(){
+                return Arrays.stream(map).filter(c -> c != 0).toArray();
+            }
+            public long[] packedKeys(){
+                return IntStream.range(0, map.length).filter(i -> map[i] != 0).asLongStream().toArray();
+            }
+            public void add(byte[] bytes, long count){
+                int i = 0;
+                for(byte b : bytes){
+                    i |= b & 0xFF;
+                    i <<= 8;
+                }
+                i >>= 8;
+                map[i] += count;
+            }
+            public Set<byte[]> keySet(){
+                Set<byte[]> set = new HashSet<>();
+                for(int i=0; i<map.length; i++){
+                    if(map[i] != 0){
+                        byte[] bytes = new byte[n];
+                        for(int j=0; j<n; j++){
+                            bytes[j] = (byte)(i>>(8*(n-j-1)));
+                        }
+                        set.add(bytes);
+                    }
+                }
+                return set;
+            }
+            public long get(byte[] bytes){
+                int i = 0;
+                for(byte b : bytes){
+                    i |= b & 0xFF;
+                    i <<= 8;
+                }
+                i >>= 8;
+                return map[i];
+            }
+
+        }
+        // Symbol counting for n <= 2 straight into ArrayFreqMap's counts. Input is read 8 bytes at a time. For n=1 the
+        // bytes of a word go to four count tables in turn, so a run of one byte value doesn't make every increment
+        // wait on the store of the one before; the tables are summed at the end. For n=2 the 65536-entry tables
+        // only pay for their summing on long ranges, so shorter ones count into a single table.
+        static class Histogram {
+            private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+            private static final int INTERLEAVE_N2 = 1<<20;
+
+            // Adds the symbols of file[from, to) to counts; a last partial symbol is zero-padded, as pack() does
+            static void count(byte[] file, int from, int to, int n, long[] counts){
+                if(n == 1){
+                    count1(file, from, to, counts);
+                }
+                else if(to-from >= INTERLEAVE_N2){
+                    count2Interleaved(file, from, to, counts);
+                }
+                else{
+                    count2(file, from, to, counts);
+                }
+            }
+            private static void count1(byte[] file, int from, int to, long[] counts){
+                int[] c0 = new int[256], c1 = new int[256], c2 = new int[256], c3 = new int[256];
+                int i = from;
+                // Byte loads beat shifting bytes out of a word here; the four tables break the store-to-load chains
+                for(; i+4 <= to; i+=4){
+                    c0[file[i] & 0xFF]++;
+                    c1[file[i+1] & 0xFF]++;
+                    c2[file[i+2] & 0xFF]++;
+                    c3[file[i+3] & 0xFF]++;
+                }
+                for(; i<to; i++){
+                    c0[file[i] & 0xFF]++;
+                }
+                for(int b=0; b<256; b++){
+                    counts[b] += (long)c0[b]+c1[b]+c2[b]+c3[b];
+                }
+            }
+            private static void count2(byte[] file, int from, int to, long[] counts){
+                int i = from;
+                for(; i+8 <= to; i+=8){
+                    long word = (long)LONGS.get(file, i);
+                    counts[(int)(word >>> 48)]++;
+                    counts[(int)(word >>> 32) & 0xFFFF]++;
+                    counts[(int)(word >>> 16) & 0xFFFF]++;
+                    counts[(int)word & 0xFFFF]++;
+                }
+                count2Tail(file, i, to, counts);
+            }
+            private static void count2Interleaved(byte[] file, int from, int to, long[] counts){
+                int[] c0 = new int[1<<16], c1 = new int[1<<16];
+                int i = from;
+                for(; i+8 <= to; i+=8){
+                    long word = (long)LONGS.get(file, i);
+                    c0[(int)(word >>> 48)]++;
+                    c1[(int)(word >>> 32) & 0xFFFF]++;
+                    c0[(int)(word >>> 16) & 0xFFFF]++;
+                    c1[(int)word & 0xFFFF]++;
+                }
+                for(int s=0; s<1<<16; s++){
+                    counts[s] += (long)c0[s]+c1[s];
+                }
+                count2Tail(file, i, to, counts);
+            }
+            private static void count2Tail(byte[] file, int i, int to, long[] counts){
+                for(; i<to; i+=2){
+                    counts[(file[i] & 0xFF) << 8 | (i+1 < to ? file[i+1] & 0xFF : 0)]++;
+                }
+            }
+            // count() over a buffer, such as a mapped window
+            static void count(ByteBuffer file, int from, int to, int n, long[] counts){
+                if(file.hasArray()){
+                    count(file.array(), file.arrayOffset()+from, file.arrayOffset()+to, n, counts);
+                    return;
+                }
+                int[] c0 = new int[1 << (8*n)], c1 = new int[1 << (8*n)];
+                int i = from;
+                for(; i+8 <= to; i+=8){
+                    long word = file.getLong(i);
+                    if(n == 1){
+                        c0[(int)(word >>> 56)]++;
+                        c1[(int)(word >>> 48) & 0xFF]++;
+                        c0[(int)(word >>> 40) & 0xFF]++;
+                        c1[(int)(word >>> 32) & 0xFF]++;
+                        c0[(int)(word >>> 24) & 0xFF]++;
+                        c1[(int)(word >>> 16) & 0xFF]++;
+                        c0[(int)(word >>> 8) & 0xFF]++;
+                        c1[(int)word & 0xFF]++;
+                    }
+                    else{
+                        c0[(int)(word >>> 48)]++;
+                        c1[(int)(word >>> 32) & 0xFFFF]++;
+                        c0[(int)(word >>> 16) & 0xFFFF]++;
+                        c1[(int)word & 0xFFFF]++;
+                    }
+                }
+                for(int s=0; s<c0.length; s++){
+                    counts[s] += (long)c0[s]+c1[s];
+                }
+                for(; i<to; i+=n){
+                    int symbol = file.get(i) & 0xFF;
+                    if(n == 2){
+                        symbol = symbol << 8 | (i+1 < to ? file.get(i+1) & 0xFF : 0);
+                    }
+                    counts[symbol]++;
+                }
+            }
+        }
+        // Open-addressing long -> long table with linear probing, backing the Long* maps. Each table hashes with its
+        // own seed: keys taken in one table's slot order are a narrow band of that table's hash range, and under a
+        // shared hash they would pile into one cluster of the next.
+        private static class LongLongMap {
+            long[] keys;
+            long[] values;
+            boolean[] used;
+            int size;
+            int shift;
+            final long seed = nextSeed();
+
+            LongLongMap(){
+                allocate(16);
+            }
+            private void allocate(int capacity){
+                keys = new long[capacity];
+                values = new long[capacity];
+                used = new boolean[capacity];
+                shift = 64-Integer.numberOfTrailingZeros(capacity);
+            }
+            // Index of key, or of the empty slot where it would go
+            int slot(long key){
+                int i = (int)(mix(key ^ seed) >>> shift);
+                while(used[i] && keys[i] != key){
+                    i = (i+1) & (keys.length-1);
+                }
+                return i;
+            }
+            boolean containsKey(long key){
+                return used[slot(key)];
+            }
+            long get(long key){
+                return values[slot(key)];
+            }
+            void put(long key, long value){
+                int i = slot(key);
+                if(!used[i]){
+                    if(2*(size+1) > keys.length){
+                        grow();
+                        i = slot(key);
+                    }
+                    used[i] = true;
+                    keys[i] = key;
+                    size++;
+                }
+                values[i] = value;
+            }
+            void add(long key, long delta){
+                int i = slot(key);
+                if(used[i]){
+                    values[i] += delta;
+                }
+                else{
+                    put(key, delta);
+                }
+            }
+            // The keys in slot order, and their values in the same order
+            long[] usedKeys(){
+                long[] used = new long[size];
+                int k = 0;
+                for(int i=0; i<keys.length; i++){
+                    if(this.used[i]){
+                        used[k++] = keys[i];
+                    }
+                }
+                return used;
+            }
+            long[] usedValues(){
+                long[] used = new long[size];
+                int k = 0;
+                for(int i=0; i<keys.length; i++){
+                    if(this.used[i]){
+                        used[k++] = values[i];
+                    }
+                }
+                return used;
+            }
+            // Empties the table, keeping its capacity
+            void clear(){
+                Arrays.fill(used, false);
+                size = 0;
+            }
+            // Grows the table so that `size` keys stay under half full
+            void reserve(int size){
+                int capacity = keys.length;
+                while(capacity < 2*size){
+                    capacity <<= 1;
+                }
+                if(capacity > keys.length){
+                    rehash(capacity);
+                }
+            }
+            private void grow(){
+                rehash(keys.length*2);
+            }
+            private void rehash(int capacity){
+                long[] oldKeys = keys;
+                long[] oldValues = values;
+                boolean[] oldUsed = used;
+                allocate(capacity);
+                for(int i=0; i<oldKeys.length; i++){
+                    if(oldUsed[i]){
+                        int j = slot(oldKeys[i]);
+                        used[j] = true;
+                        keys[j] = oldKeys[i];
+                        values[j] = oldValues[i];
+                    }
+                }
+            }
+        }
+        private byte[] unpack(long key){
+            byte[] bytes = new byte[n];
+            for(int i=0; i<n; i++){
+                bytes[i] = (byte)(key >> (8*(n-i-1)));
+            }
+            return bytes;
+        }
+        private class LongFreqMap extends FreqMap {
+            private LongLongMap map = new LongLongMap();
+            public boolean containsKey(byte[] bytes){
+                return map.containsKey(pack(bytes, 0, n));
+            }
+            public void put(byte[] bytes, int val){
+                map.put(pack(bytes, 0, n), val);
+            }
+            public void inc(byte[] bytes){
+                map.add(pack(bytes, 0, n), 1);
+            }
+            public void inc(long key){
+                map.add(key, 1);
+            }
+            public void add(long key, long count){
+                map.add(key, count);
+            }
+            public void add(byte[] bytes, long count){
+                map.add(pack(bytes, 0, n), count);
+            }
+            public void merge(FreqMap other){
+                if(!(other instanceof LongFreqMap)){
+                    super.merge(other);
+                    return;
+                }
+                LongLongMap counts = ((LongFreqMap)other).map;
+                for(int i=0; i<counts.keys.length; i++){
+                    if(counts.used[i]){
+                        map.add(counts.keys[i], counts.values[i]);
+                    }
+                }
+            }
+            public long[] counts(){
+                return map.usedValues();
+            }
+            public long[] packedKeys(){
+                return map.usedKeys();
+            }
+            public Set<byte[]> keySet(){
+                Set<byte[]> set = new HashSet<>();
+                for(int i=0; i<map.keys.length; i++){
+                    if(map.used[i]){
+                        set.add(unpack(map.keys[i]));
+                    }
+                }
+                return set;
+            }
+            public long get(byte[] bytes){
+                return map.get(pack(bytes, 0, n));
+            }
+        }
+        // Misra-Gries summary for topK: once it holds more than 2*capacity symbols, the (capacity+1)-th
+        // largest count is taken off every symbol and those left at zero are dropped, so memory stays O(capacity) and
+        // a count falls short by at most total/(capacity+1). The counts taken off, and their bytes, feed the escape.
+        private class SummaryFreqMap extends LongFreqMap {
+            final int capacity;
+            long dropped;
+            final long[] droppedBytes = new long[256];
+            SummaryFreqMap(int capacity){
+                this.capacity = capacity;
+            }
+            public void inc(byte[] bytes){
+                inc(pack(bytes, 0, n));
+            }
+            public void inc(long key){
+                super.inc(key);
+                if(super.map.size > 2*capacity){
+                    compact();
+                }
+            }
+            public void add(byte[] bytes, long count){
+                add(pack(bytes, 0, n), count);
+            }
+            public void add(long key, long count){
+                super.add(key, count);
+                if(super.map.size > 2*capacity){
+                    compact();
+                }
+            }
+            public void merge(FreqMap other){
+                super.merge(other);
+                if(other instanceof SummaryFreqMap){
+                    SummaryFreqMap summary = (SummaryFreqMap)other;
+                    dropped += summary.dropped;
+                    for(int b=0; b<256; b++){
+                        droppedBytes[b] += summary.droppedBytes[b];
+                    }
+                }
+                if(super.map.size > 2*capacity){
+                    compact();
+                }
+            }
+            private void compact(){
+                long[] keys = super.map.usedKeys();
+                long[] values = super.map.usedValues();
+                long[] sorted = values.clone();
+                long max = 0;
+                for(long value : values){
+                    max = Math.max(max, value);
+                }
+                radixSort(sorted, 0, sorted.length, 64-Long.numberOfLeadingZeros(max));
+                long threshold = sorted[sorted.length-1-capacity];
+                super.map.clear();
+                for(int i=0; i<keys.length; i++){
+                    long taken = Math.min(values[i], threshold);
+                    dropped += taken;
+                    for(int j=0; j<n; j++){
+                        droppedBytes[(int)(keys[i] >>> (8*j)) & 0xFF] += taken;
+                    }
+                    if(values[i] > threshold){
+                        super.map.put(keys[i], values[i]-threshold);
+                    }
+                }
+            }
+        }
+        private class LongBytesToCodeMap extends BytesToCodeMap {
+            private LongLongMap map = new LongLongMap();
+            public boolean containsKey(byte[] bytes){
+                return map.containsKey(pack(bytes, 0, n));
+            }
+            public Set<byte[]> keySet(){
+                Set<byte[]> set = new HashSet<>();
+                for(int i=0; i<map.keys.length; i++){
+                    if(map.used[i]){
+                        set.add(unpack(map.keys[i]));
+                    }
+                }
+                return set;
+            }
+            public void put(byte[] bytes, long val){
+                map.put(pack(bytes, 0, n), val);
+            }
+            public void put(long key, long val){
+                map.put(key, val);
+            }
+            public void reserve(int size){
+                map.reserve(size);
+            }
+            public long[] packedKeys(){
+                return map.usedKeys();
+            }
+            public long[] codes(){
+                return map.usedValues();
+            }
+            public long get(byte[] bytes){
+                return map.get(pack(bytes, 0, n));
+            }
+            public void printMap() {
+                for (int i = 0; i < map.keys.length; i++) {
+                    if (map.used[i]) {
+                        System.out.println("(" + Long.toHexString(map.keys[i]) + ") "
+                                + Long.toHexString(map.values[i])
+                                + " " + map.values[i]);
+                    }
+                }
+            }
+        }
+        private class LongCodeToBytesMap extends CodeToBytesMap {
+            private LongLongMap map = new LongLongMap();
+            public boolean containsKey(long key){
+                return map.containsKey(key);
+            }
+            public void put(long key, byte[] val){
+                map.put(key, pack(val, 0, n));
+            }
+            public byte[] get(long key){
+                return unpack(map.get(key));
+            }
+            public Set<Long> keySet(){
+                Set<Long> set = new HashSet<>();
+                for(int i=0; i<map.keys.length; i++){
+                    if(map.used[i]){
+                        set.add(map.keys[i]);
+                    }
+                }
+                return set;
+            }
+        }
+        private class HashFreqMap extends FreqMap {
+            private ByteArrayWrapper wrapper;
+            private Map<ByteArrayWrapper, Integer> map;
+            Set<byte[]> set = new HashSet<>();
+            HashFreqMap(){
+                map = new HashMap<>();
+                wrapper = new ByteArrayWrapper(new byte[n]);
+            }
+            public boolean containsKey(byte[] bytes){
+                wrapper.setData(bytes);
+                return map.containsKey(wrapper);
+            }
+            public void put(byte[] bytes, int val){
+                ByteArrayWrapper wrapper = new ByteArrayWrapper(bytes);
+                map.put(wrapper, val);
+                set.add(bytes);
+            }
+            public void inc(byte[] bytes){
+                ByteArrayWrapper wrapper = new ByteArrayWrapper(bytes);
+                if(map.containsKey(wrapper)){
+                    map.put(wrapper, map.get(wrapper)+1);
+                }
+                else{
+                    map.put(wrapper, 1);
+                    set.add(bytes);
+                }
+            }
+            public void add(byte[] bytes, long count){
+                ByteArrayWrapper wrapper = new ByteArrayWrapper(bytes);
+                Integer val = map.get(wrapper);
+                if(val != null){
+                    map.put(wrapper, val+(int)count);
+                }
+                else{
+                    map.put(wrapper, (int)count);
+                    set.add(bytes);
+                }
+            }
+            public Set<byte[]> keySet(){
+                return set;
+            }
+            public long get(byte[] bytes){
+                wrapper.setData(bytes);
+                return map.get(wrapper);
+            }
+        }
+        // Sampling for automatic n: files up to SAMPLE_LIMIT are read whole, larger ones as SAMPLE_CHUNKS evenly spaced chunks
+        private static final int SAMPLE_LIMIT = 1<<20;
+        private static final int SAMPLE_CHUNKS = 16;
+        // Picks the n in 1..maxN with the smallest estimated output for inputFile. Candidates are estimated on threads
+        // threads from one shared sample, so the cost is a read of at most 1MB plus one histogram per candidate.
+        public static int chooseSymbolSize(String inputFile, int maxN, int threads) throws Exception {
+            long fileSize = new File(inputFile).length();
+            // chunk offsets and lengths are multiples of every candidate n, so each sees the file's own symbol alignment
+            int align = 1;
+            for(int n=2; n<=maxN; n++){
+                int a = align, b = n;
+                while(b != 0){ int t = a%b; a = b; b = t; }
+                align = align/a*n;
+            }
+            byte[] sample;
+            try (FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+                if(fileSize <= SAMPLE_LIMIT){
+                    sample = new byte[(int)fileSize];
+                    readFully(channel, ByteBuffer.wrap(sample), 0);
+                }
+                else{
+                    int chunk = Math.max(align, SAMPLE_LIMIT/SAMPLE_CHUNKS/align*align);
+                    sample = new byte[chunk*SAMPLE_CHUNKS];
+                    long stride = (fileSize-chunk)/(SAMPLE_CHUNKS-1);
+                    for(int i=0; i<SAMPLE_CHUNKS; i++){
+                        long offset = i*stride/align*align;
+                        readFully(channel, ByteBuffer.wrap(sample, i*chunk, chunk), offset);
+                    }
+                }
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, maxN)));
+            try {
+                List<Future<Double>> estimates = new ArrayList<>();
+                for(int n=1; n<=maxN; n++){
+                    Compressor candidate = new Compressor(n);
+                    estimates.add(executor.submit(() -> candidate.estimateCompressedSize(sample, fileSize)));
+                }
+                int best = 1;
+                for(int n=2; n<=maxN; n++){
+                    if(estimates.get(n-1).get() < estimates.get(best-1).get()){
+                        best = n;
+                    }
+                }
+                return best;
+            }
+            finally {
+                executor.shutdown();
+            }
+        }
+        // Estimated compressed size in bytes of a fileSize-byte file that looks like sample: the sample's order-0
+        // entropy (at least one bit per symbol) scaled to the file, plus the writeMap header and the block frames
+        double estimateCompressedSize(byte[] sample, long fileSize){
+            FreqMap counts = newFreqMap();
+            captureFreq(sample, counts);
+            long[] symbols = counts.counts();
+            long total = 0;
+            long minCount = Long.MAX_VALUE;
+            long singletons = 0, doubletons = 0;
+            for(long c : symbols){
+                total += c;
+                minCount = Math.min(minCount, c);
+                if(c == 1) singletons++;
+                if(c == 2) doubletons++;
+            }
+            if(total == 0){
+                return 0;
+            }
+            double bits = 0;
+            for(long c : symbols){
+                // a Huffman code spends at least one bit on every symbol
+                bits += c*Math.max(1, Math.log((double)total/c)/Math.log(2));
+            }
+            double scale = (double)fileSize/sample.length;
+            double distinct = symbols.length;
+            if(scale > 1){
+                // Chao1 estimate of the symbols the sample missed
+                distinct += doubletons > 0 ? (double)singletons*singletons/(2*doubletons) : singletons*(singletons-1)/2.0;
+                distinct = Math.min(distinct, Math.min(Math.pow(256, n), (double)fileSize/n));
+            }
+            int maxLen = Math.max(1, 64-Long.numberOfLeadingZeros((total-1)/minCount)+1);
+            double header = 4+4+4+8+1 + 1+4.0*maxLen + distinct*n;
+            double frames = 8.0*((fileSize+BUFFER_SIZE-1)/BUFFER_SIZE);
+            return bits*scale/8 + header + frames;
+        }
+        public void captureFileFreq() throws Exception {
+            if(memoryMapped){
+                captureFileFreqMapped();
+                return;
+            }
+            if(threads > 1){
+                captureFileFreqParallel();
+                return;
+            }
+            try (FileInputStream fis = new FileInputStream(inputFile);
+                 FileChannel inputChannel = fis.getChannel();) {
+                fileSize = inputChannel.size();
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+                // whole blocks, so that a short read cannot shift the symbol boundaries
+                while (readFully(inputChannel, buffer) > 0) {
+                    buffer.flip();
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    captureFreq(bytes);
+                    buffer.clear();
+                }
+
+            }
+        }
+        // Counts symbols straight from the mapped windows, without copying blocks into the heap
+        public void captureFileFreqMapped() throws Exception {
+            try (FileChannel inputChannel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+                fileSize = inputChannel.size();
+                long window = MAP_WINDOW/BUFFER_SIZE*BUFFER_SIZE;
+                for(long start=0; start<fileSize; start+=window){
+                    int size = (int)Math.min(window, fileSize-start);
+                    captureFreq(inputChannel.map(FileChannel.MapMode.READ_ONLY, start, size), freq);
+                }
+            }
+        }
+        public void captureFreq(ByteBuffer file, FreqMap freq){
+            int l = file.limit();
+            if(n <= 2 && freq instanceof ArrayFreqMap){
+                Histogram.count(file, 0, l, n, ((ArrayFreqMap)freq).map);
+                return;
+            }
+            if(n <= 8){
+                for(int i=0; i<l; i+=n){
+                    freq.inc(pack(file, i, l-i));
+                }
+                return;
+            }
+            byte[] bytes = new byte[BUFFER_SIZE];
+            for(int i=0; i<l; i+=BUFFER_SIZE){
+                int length = Math.min(BUFFER_SIZE, l-i);
+                file.get(i, bytes, 0, length);
+                captureFreq(length == BUFFER_SIZE ? bytes : Arrays.copyOf(bytes, length), freq);
+            }
+        }
+        // Each thread counts a range of whole symbols into its own map; the maps are merged into freq afterwards
+        public void captureFileFreqParallel() throws Exception {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try (FileInputStream fis = new FileInputStream(inputFile);
+                 FileChannel inputChannel = fis.getChannel();) {
+                fileSize = inputChannel.size();
+                long symbols = (fileSize+n-1)/n;
+                long rangeSize = (symbols+threads-1)/threads*n;
+                List<Future<FreqMap>> ranges = new ArrayList<>();
+                for(long start=0; start<fileSize; start+=rangeSize){
+                    long from = start;
+                    long to = Math.min(fileSize, start+rangeSize);
+                    ranges.add(executor.submit(() -> {
+                        FreqMap local = freq instanceof SummaryFreqMap
+                                ? new SummaryFreqMap(((SummaryFreqMap)freq).capacity) : newFreqMap();
+                        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                        long position = from;
+                        while(position < to){
+                            buffer.clear();
+                            buffer.limit((int)Math.min(BUFFER_SIZE, to-position));
+                            while(buffer.hasRemaining() && inputChannel.read(buffer, position+buffer.position()) > 0);
+                            buffer.flip();
+                            byte[] bytes = new byte[buffer.remaining()];
+                            buffer.get(bytes);
+                            captureFreq(bytes, local);
+                            position += bytes.length;
+                        }
+                        return local;
+                    }));
+                }
+                for(Future<FreqMap> range : ranges){
+                    freq.merge(range.get());
+                }
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+        public void captureFreq(byte[] file){
+            captureFreq(file, freq);
+        }
+        public void captureFreq(byte[] file, FreqMap freq){
+            int l = file.length;
+            if(n <= 2 && freq instanceof ArrayFreqMap){
+                Histogram.count(file, 0, l, n, ((ArrayFreqMap)freq).map);
+                return;
+            }
+            if(n <= 8){
+                for(int i=0; i<l; i+=n){
+                    freq.inc(pack(file, i, l-i));
+                }
+                return;
+            }
+            for(int i=0; i+n-1 < l; i += n){
+                byte[] bytes = new byte[n];
+                for(int j=0; j<n; j++){
+                    bytes[j] = file[i+j];
+                }
+                freq.inc(bytes);
+            }
+            if(l%n != 0){
+                int m=l%n;
+                byte[] bytes = new byte[n];
+                for(int i=0; i<n; i++){
+                    if(l-m+i < l){
+                        bytes[i] = file[l-m+i];
+                    }
+                    else{
+                        bytes[i] = 0x00;
+                    }
+                }
+                freq.inc(bytes);
+            }
+        }
+        public Node constructHuffmanTree(){
+            PriorityQueue<Node> Q = new PriorityQueue<>();
+            for(byte[] bytes : freq.keySet()){
+                Q.add(new Node((int)freq.get(bytes), bytes));
+            }
+            while(!(Q.size()==1)){
+                Node x = Q.remove();
+                Node y = Q.remove();
+                Q.add(new Node(x, y, x.val+y.val));
+            }
+            root = Q.remove();
+            return root;
+        }
+        public void constructCodeMap(Node node, long code, long codeSize){
+            if(node.left == null){
+                codeSize = Math.max(codeSize, 1); // a lone symbol still needs one bit
+                code <<= 56-codeSize;
+                bytesToCode.put(node.bytes, code | (codeSize<<56));
+                packedTable = null;
+            }
+            else{
+                constructCodeMap(node.left, code<<1, codeSize+1);
+                constructCodeMap(node.right, (code<<1)+1, codeSize+1);
+            }
+            root = null;
+        }
+        private void collectCodeLengths(Node node, int depth, List<byte[]> symbols, List<Integer> lengths){
+            if(node.left == null){
+                symbols.add(node.bytes);
+                lengths.add(Math.max(depth, 1)); // a lone symbol still needs one bit
+            }
+            else{
+                collectCodeLengths(node.left, depth+1, symbols, lengths);
+                collectCodeLengths(node.right, depth+1, symbols, lengths);
+            }
+        }
+        public void constructCanonicalCodeMap(){
+            List<byte[]> symbols = new ArrayList<>();
+            List<Integer> lengths = new ArrayList<>();
+            collectCodeLengths(root, 0, symbols, lengths);
+            lengthLimitCost = 0;
+            if(maxCodeLength > 0 && Collections.max(lengths) > maxCodeLength){
+                long[] weights = new long[symbols.size()];
+                long unlimited = 0;
+                for(int i=0; i<weights.length; i++){
+                    weights[i] = freq.get(symbols.get(i));
+                    unlimited += weights[i]*lengths.get(i);
+                }
+                int[] limited = limitCodeLengths(weights, maxCodeLength);
+                long total = 0;
+                for(int i=0; i<weights.length; i++){
+                    lengths.set(i, limited[i]);
+                    total += weights[i]*limited[i];
+                }
+                lengthLimitCost = (double)(total-unlimited)/unlimited;
+            }
+            assignCanonicalCodes(symbols, lengths);
+        }
+        // Package-merge: the optimal prefix code whose lengths do not exceed maxLen. Each level's list is
+        // the symbols merged with pairs of the deeper level's list; taking the 2k-2 lightest items of the
+        // top list, every symbol's length is the number of levels at which it is picked.
+        public int[] limitCodeLengths(long[] weights, int maxLen){
+            int k = weights.length;
+            if(maxLen < 1 || maxLen > 56 || (maxLen < 31 && k > 1 << maxLen)){
+                throw new IllegalArgumentException(k + " symbols do not fit in codes of at most " + maxLen + " bits");
+            }
+            int[] lengths = new int[k];
+            if(k == 1){
+                lengths[0] = 1;
+                return lengths;
+            }
+            Integer[] order = new Integer[k];
+            for(int i=0; i<k; i++){
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(weights[a], weights[b]));
+            long[] sorted = new long[k];
+            for(int i=0; i<k; i++){
+                sorted[i] = weights[order[i]];
+            }
+            BitSet[] isLeaf = new BitSet[maxLen+1];
+            long[] list = new long[0];
+            for(int level=maxLen; level>=1; level--){
+                int packages = list.length/2;
+                long[] merged = new long[k+packages];
+                isLeaf[level] = new BitSet(merged.length);
+                int i = 0, j = 0;
+                for(int m=0; m<merged.length; m++){
+                    if(j >= packages || (i < k && sorted[i] <= list[2*j]+list[2*j+1])){
+                        merged[m] = sorted[i++];
+                        isLeaf[level].set(m);
+                    }
+                    else{
+                        merged[m] = list[2*j]+list[2*j+1];
+                        j++;
+                    }
+                }
+                list = merged;
+            }
+            int selected = 2*k-2;
+            for(int level=1; level<=maxLen && selected > 0; level++){
+                int leaves = isLeaf[level].get(0, selected).cardinality();
+                for(int i=0; i<leaves; i++){
+                    lengths[order[i]]++;
+                }
+                selected = 2*(selected-leaves);
+            }
+            return lengths;
+        }
+        // constructHuffmanTree and constructCanonicalCodeMap without a Node per symbol or recursion: the counts are
+        // sorted into a primitive array, turned into code lengths in place, and the canonical codes handed out from
+        // the lengths. Wide symbols (n > 8) have no packed form and take the tree path.
+        public void constructCanonicalCodes(){
+            if(n > 8){
+                constructHuffmanTree();
+                constructCanonicalCodeMap();
+                return;
+            }
+            long[] counts = freq.counts();
+            long[] keys = freq.packedKeys();
+            int k = counts.length;
+            sortByCount(counts, keys);
+            long[] lengths = Arrays.copyOf(counts, k);
+            codeLengths(lengths);
+            lengthLimitCost = 0;
+            if(maxCodeLength > 0 && k > 0 && lengths[0] > maxCodeLength){
+                long unlimited = 0, total = 0;
+                int[] limited = limitCodeLengths(counts, maxCodeLength);
+                for(int i=0; i<k; i++){
+                    unlimited += counts[i]*lengths[i];
+                    lengths[i] = limited[i];
+                    total += counts[i]*lengths[i];
+                }
+                lengthLimitCost = (double)(total-unlimited)/unlimited;
+            }
+            // bucket the symbols by length, then sort each bucket by symbol
+            int maxLen = 0;
+            for(int i=0; i<k; i++){
+                maxLen = Math.max(maxLen, (int)lengths[i]);
+            }
+            lengthCounts = new int[maxLen+1];
+            for(int i=0; i<k; i++){
+                lengthCounts[(int)lengths[i]]++;
+            }
+            int[] start = new int[maxLen+2];
+            for(int len=1; len<=maxLen; len++){
+                start[len+1] = start[len]+lengthCounts[len];
+            }
+            long[] canonical = new long[k];
+            int[] next = Arrays.copyOf(start, maxLen+1);
+            bytesToCode.reserve(k);
+            for(int i=0; i<k; i++){
+                canonical[next[(int)lengths[i]]++] = keys[i];
+            }
+            sortedSymbols = new byte[k*n];
+            long code = 0;
+            int i = 0;
+            for(int len=1; len<=maxLen; len++){
+                radixSort(canonical, start[len], start[len+1], 8*n);
+                for(; i<start[len+1]; i++, code++){
+                    long key = canonical[i];
+                    for(int j=0; j<n; j++){
+                        sortedSymbols[i*n+j] = (byte)(key >> (8*(n-j-1)));
+                    }
+                    bytesToCode.put(key, (code << (56-len)) | ((long)len << 56));
+                }
+                code <<= 1;
+            }
+            packedTable = null;
+            reader = null;
+            root = null;
+        }
+        // Sorts counts into ascending order and keys along with them, equal counts in ascending (unsigned) key order.
+        // Flat input is mostly ties, and leaving them in the freq map's slot order would hand each code length a band
+        // of that map's hash range. A count shares one long with its key, or else with the key's rank, when they fit,
+        // so this is a radix sort rather than a comparator over boxed indices.
+        private static void sortByCount(long[] counts, long[] keys){
+            int k = counts.length;
+            long max = 0, keyBits = 0;
+            for(int i=0; i<k; i++){
+                max = Math.max(max, counts[i]);
+                keyBits |= keys[i];
+            }
+            int countWidth = 64-Long.numberOfLeadingZeros(max);
+            int width = 64-Long.numberOfLeadingZeros(keyBits);
+            long[] packed = new long[k];
+            if(countWidth+width <= 64){
+                for(int i=0; i<k; i++){
+                    packed[i] = counts[i] << width | keys[i];
+                }
+                radixSort(packed, 0, k, countWidth+width);
+                long mask = width == 0 ? 0 : -1L >>> (64-width);
+                for(int i=0; i<k; i++){
+                    counts[i] = packed[i] >>> width;
+                    keys[i] = packed[i] & mask;
+                }
+                return;
+            }
+            // keys in unsigned order (hence the flipped sign bit), so that a key's rank orders it like the key
+            long[] sorted = new long[k];
+            for(int i=0; i<k; i++){
+                sorted[i] = keys[i] ^ Long.MIN_VALUE;
+            }
+            Arrays.sort(sorted);
+            int rankWidth = 64-Long.numberOfLeadingZeros(Math.max(1, k-1));
+            if(countWidth+rankWidth <= 64){
+                for(int i=0; i<k; i++){
+                    packed[i] = counts[i] << rankWidth | Arrays.binarySearch(sorted, keys[i] ^ Long.MIN_VALUE);
+                }
+                radixSort(packed, 0, k, countWidth+rankWidth);
+                long mask = (1L << rankWidth)-1;
+                for(int i=0; i<k; i++){
+                    counts[i] = packed[i] >>> rankWidth;
+                    keys[i] = sorted[(int)(packed[i] & mask)] ^ Long.MIN_VALUE;
+                }
+                return;
+            }
+            long[] byCount = counts.clone();
+            long[] byKey = keys.clone();
+            Integer[] order = new Integer[k];
+            for(int i=0; i<k; i++){
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> byCount[a] != byCount[b] ? Long.compare(byCount[a], byCount[b]) : Long.compareUnsigned(byKey[a], byKey[b]));
+            for(int i=0; i<k; i++){
+                counts[i] = byCount[order[i]];
+                keys[i] = byKey[order[i]];
+            }
+        }
+        // Least significant digit first radix sort of a[from, to) as unsigned values of the given width, RADIX_BITS
+        // per pass; short ranges aren't worth the passes and go to Arrays.sort
+        private static final int RADIX_BITS = 11;
+        private static void radixSort(long[] a, int from, int to, int width){
+            int k = to-from;
+            if(k < 1 << RADIX_BITS){
+                long flip = width == 64 ? Long.MIN_VALUE : 0;
+                for(int i=from; i<to; i++){
+                    a[i] ^= flip;
+                }
+                Arrays.sort(a, from, to);
+                for(int i=from; i<to; i++){
+                    a[i] ^= flip;
+                }
+                return;
+            }
+            long[] source = Arrays.copyOfRange(a, from, to);
+            long[] target = new long[k];
+            int[] offsets = new int[1 << RADIX_BITS];
+            int mask = (1 << RADIX_BITS)-1;
+            for(int shift=0; shift<width; shift+=RADIX_BITS){
+                Arrays.fill(offsets, 0);
+                for(long value : source){
+                    offsets[(int)(value >>> shift) & mask]++;
+                }
+                int sum = 0;
+                for(int d=0; d<=mask; d++){
+                    int count = offsets[d];
+                    offsets[d] = sum;
+                    sum += count;
+                }
+                for(long value : source){
+                    target[offsets[(int)(value >>> shift) & mask]++] = value;
+                }
+                long[] swap = source;
+                source = target;
+                target = swap;
+            }
+            System.arraycopy(source, 0, a, from, k);
+        }
+        // Moffat and Katajainen's in-place minimum-redundancy code: a holds counts in ascending order and is
+        // overwritten with the matching code lengths (so a[0] is the longest). The first pass merges the two
+        // queues of leaves and internal nodes, storing each internal node's parent index in place of its weight;
+        // the second turns parent indices into depths; the third hands out leaf depths from the internal ones.
+        static void codeLengths(long[] a){
+            int k = a.length;
+            if(k <= 1){
+                if(k == 1){
+                    a[0] = 1; // a lone symbol still needs one bit
+                }
+                return;
+            }
+            a[0] += a[1];
+            int root = 0, leaf = 2;
+            for(int next=1; next<k-1; next++){
+                if(leaf >= k || a[root] < a[leaf]){
+                    a[next] = a[root];
+                    a[root++] = next;
+                }
+                else{
+                    a[next] = a[leaf++];
+                }
+                if(leaf >= k || (root < next && a[root] < a[leaf])){
+                    a[next] += a[root];
+                    a[root++] = next;
+                }
+                else{
+                    a[next] += a[leaf++];
+                }
+            }
+            a[k-2] = 0;
+            for(int next=k-3; next>=0; next--){
+                a[next] = a[(int)a[next]]+1;
+            }
+            int available = 1, used = 0, depth = 0;
+            root = k-2;
+            int next = k-1;
+            while(available > 0){
+                while(root >= 0 && a[root] == depth){
+                    used++;
+                    root--;
+                }
+                while(available > used){
+                    a[next--] = depth;
+                    available--;
+                }
+                available = 2*used;
+                depth++;
+                used = 0;
+            }
+        }
+        // Escape mode: keeps the topK most frequent symbols of freq (or the K chooseTopK picks) and replaces the rest
+        // with an escape symbol, the smallest value left without a code, counted once per escaped symbol. The bytes of
+        // the escaped symbols are counted into an n=1 fallback table, which also codes every other byte value once.
+        // Leaves escapeTables null when every symbol is kept.
+        private void selectTopK(){
+            escapeTables = null;
+            long[] counts = freq.counts();
+            long[] keys = freq.packedKeys();
+            int k = counts.length;
+            sortByCount(counts, keys);
+            // a summary has already escaped the counts it dropped
+            long[] bytes = freq instanceof SummaryFreqMap ? ((SummaryFreqMap)freq).droppedBytes.clone() : new long[256];
+            long escaped = freq instanceof SummaryFreqMap ? ((SummaryFreqMap)freq).dropped : 0;
+            int kept = Math.min(k, topK == TOP_K_AUTO ? Math.min(TOP_K_AUTO_LIMIT, chooseTopK(counts, keys, escaped, bytes)) : Math.max(1, topK));
+            if(kept == k && escaped == 0){
+                return;
+            }
+            FreqMap top = newFreqMap();
+            long[] topKeys = new long[kept];
+            for(int i=0; i<k; i++){
+                if(i >= k-kept){
+                    top.add(keys[i], counts[i]);
+                    topKeys[i-(k-kept)] = keys[i];
+                }
+                else{
+                    escaped += counts[i];
+                    for(int j=0; j<n; j++){
+                        bytes[(int)(keys[i] >>> (8*j)) & 0xFF] += counts[i];
+                    }
+                }
+            }
+            Arrays.sort(topKeys);
+            long escape = 0;
+            for(long key : topKeys){
+                if(key == escape){
+                    escape++;
+                }
+            }
+            top.add(escape, escaped);
+            Compressor fallback = new Compressor(1);
+            for(int b=0; b<256; b++){
+                fallback.freq.add(b, bytes[b]+1);
+            }
+            fallback.maxCodeLength = maxCodeLength;
+            fallback.constructCanonicalCodes();
+            fallback.packedTable = fallback.new PackedCodeTable();
+            freq = top;
+            escapeKey = escape;
+            escapeTables = fallback;
+        }
+        // The K, a power of two from 16 or all k symbols, with the smallest estimated output: kept symbols cost their
+        // entropy (at least a bit) plus n header bytes, escaped ones the escape code's entropy plus n bytes at the
+        // entropy of the escaped bytes, and escaping adds the fallback table. dropped and droppedBytes are the counts
+        // a summary has already escaped, which every K pays for.
+        private int chooseTopK(long[] counts, long[] keys, long dropped, long[] droppedBytes){
+            int k = counts.length;
+            long total = dropped;
+            for(long c : counts){
+                total += c;
+            }
+            // bits[i]: the i most frequent symbols
+            double[] bits = new double[k+1];
+            for(int i=0; i<k; i++){
+                long c = counts[k-1-i];
+                bits[i+1] = bits[i]+c*Math.max(1, Math.log((double)total/c)/Math.log(2));
+            }
+            long[] bytes = droppedBytes.clone();
+            long escaped = dropped;
+            int best = k;
+            double bestBits = escaped == 0 ? bits[k]+8.0*n*k : escapedBits(bits[k], k, escaped, total, bytes);
+            int kept = k;
+            for(int candidate=Integer.highestOneBit(Math.max(1, k-1)); candidate >= 16; candidate >>= 1){
+                for(int i=candidate; i<kept; i++){
+                    int s = k-1-i;
+                    escaped += counts[s];
+                    for(int j=0; j<n; j++){
+                        bytes[(int)(keys[s] >>> (8*j)) & 0xFF] += counts[s];
+                    }
+                }
+                kept = candidate;
+                double estimate = escapedBits(bits[kept], kept, escaped, total, bytes);
+                if(estimate < bestBits){
+                    best = kept;
+                    bestBits = estimate;
+                }
+            }
+            return best;
+        }
+        // chooseTopK's estimate for kept symbols costing keptBits and escaped ones whose bytes are counted in bytes
+        private double escapedBits(double keptBits, int kept, long escaped, long total, long[] bytes){
+            long byteTotal = 256;
+            for(long b : bytes){
+                byteTotal += b;
+            }
+            double fallbackBits = 0;
+            for(long b : bytes){
+                fallbackBits += (b+1)*Math.max(1, Math.log((double)byteTotal/(b+1))/Math.log(2));
+            }
+            return keptBits+8.0*n*(kept+1)+escaped*Math.max(1, Math.log((double)total/escaped)/Math.log(2))
+                    + fallbackBits+8.0*(256+1+4*16);
+        }
+        // Codes of each length are consecutive integers, handed out in (length, value) order, so the
+        // table can be rebuilt from lengthCounts and sortedSymbols alone
+        public void assignCanonicalCodes(List<byte[]> symbols, List<Integer> lengths){
+            Integer[] order = new Integer[symbols.size()];
+            int maxLen = 0;
+            for(int i=0; i<order.length; i++){
+                order[i] = i;
+                maxLen = Math.max(maxLen, lengths.get(i));
+            }
+            Arrays.sort(order, (a, b) -> {
+                int c = Integer.compare(lengths.get(a), lengths.get(b));
+                return c != 0 ? c : Arrays.compareUnsigned(symbols.get(a), symbols.get(b));
+            });
+            lengthCounts = new int[maxLen+1];
+            sortedSymbols = new byte[order.length*n];
+            long code = 0;
+            int len = 0;
+            for(int i=0; i<order.length; i++){
+                int codeSize = lengths.get(order[i]);
+                code <<= codeSize-len;
+                len = codeSize;
+                lengthCounts[len]++;
+                byte[] bytes = symbols.get(order[i]);
+                System.arraycopy(bytes, 0, sortedSymbols, i*n, n);
+                bytesToCode.put(bytes, (code << (56-len)) | ((long)len << 56));
+                code++;
+            }
+            packedTable = null;
+            reader = null;
+            root = null;
+        }
+        public void constructBytesMap(){
+            for(byte[] bytes : bytesToCode.keySet()){
+                codeToBytes.put(bytesToCode.get(bytes), bytes);
+            }
+        }
+        private class CodeWriter{
+            byte bufferByte;
+            int bufferIndex;
+            int codeSize;
+            int codeIndex;
+            int totalSize;
+            int padding;
+            byte[] compressedTemp;
+            // size is a first guess; the buffer doubles when codes outgrow it
+            CodeWriter(int size){
+                compressedTemp = new byte[Math.max(16, size)];
+            }
+            public void write(long code){
+                codeSize = (int) (code >> 56);
+                codeIndex = 0;
+                code &= 0x00FFFFFFFFFFFFFFL;
+                while(codeIndex < codeSize){
+                    if (8-bufferIndex <= codeSize-codeIndex){
+                        bufferByte |= (((byte)(code >> (56 -codeIndex-8))) >>> (bufferIndex) & (0xFF >>> bufferIndex));
+                        codeIndex += 8-bufferIndex;
+                        if(totalSize == compressedTemp.length){
+                            compressedTemp = Arrays.copyOf(compressedTemp, 2*totalSize);
+                        }
+                        compressedTemp[totalSize] = bufferByte;
+                        totalSize++;
+                        bufferByte = 0;
+                        bufferIndex = 0;
+                    }
+                    else{
+                        bufferByte |= (((byte)(code >> (56 -codeIndex-8))) >>> (bufferIndex) & (0xFF >>> bufferIndex));
+                        bufferIndex += codeSize-codeIndex;
+                        codeIndex = codeSize;
+                    }
+                }
+            }
+            // Writes out the last, partly filled byte
+            public void flush(){
+                if(bufferIndex != 0){
+                    if(totalSize == compressedTemp.length){
+                        compressedTemp = Arrays.copyOf(compressedTemp, totalSize+1);
+                    }
+                    compressedTemp[totalSize++] = bufferByte;
+                    bufferByte = 0;
+                    bufferIndex = 0;
+                }
+            }
+            public byte[] getCompressed(){
+                return Arrays.copyOf(compressedTemp, totalSize);
+            }
+        }
+        public void writeInt(byte[] arr, int val, int index){
+            arr[index] = (byte)(val >> 24);
+            arr[index+1] = (byte)(val >> 16);
+            arr[index+2] = (byte)(val >> 8);
+            arr[index+3] = (byte)(val);
+        }
+        public void writeLong(byte[] arr, long val, int index){
+            arr[index] = (byte)(val >> 56);
+            arr[index+1] = (byte)(val >> 48);
+            arr[index+2] = (byte)(val >> 40);
+            arr[index+3] = (byte)(val >> 32);
+            arr[index+4] = (byte)(val >> 24);
+            arr[index+5] = (byte)(val >> 16);
+            arr[index+6] = (byte)(val >> 8);
+            arr[index+7] = (byte)(val);
+
+        }
+        public int readInt(byte[] arr, int index){
+            return ((arr[index] & 0xFF) << 24) | ((arr[index+1] & 0xFF) << 16) | ((arr[index+2] & 0xFF) << 8) | (arr[index+3] & 0xFF);
+        }
+        public long readLong(byte[] arr, int index){
+            return ((long)readInt(arr, index) << 32) | (readInt(arr, index+4) & 0xFFFFFFFFL);
+        }
+        public byte[] writeMap(){
+            if(canonical){
+                return writeCanonicalMap();
+            }
+            int index = 4;
+            byte[] map = new byte[4+4+8+(8+n)*codeToBytes.keySet().size()];
+            writeInt(map, n, index); index+=4;
+            writeLong(map, fileSize, index); index+=8;
+            for(long key : codeToBytes.keySet()){
+                writeLong(map, key, index); index+=8;
+                byte[] bytes = codeToBytes.get(key);
+                for(int i=0; i<n; i++){
+                    map[index] = bytes[i]; index++;
+                }
+            }
+            writeInt(map, index, 0);
+            return map;
+        }
+
+        // Version 2 header: magic, map size, n, fileSize, flags, maxLen, count per length 1..maxLen, sorted symbols
+        public byte[] writeCanonicalMap(){
+            byte[] map = new byte[4+4+4+8+1+(codebook != null ? 4 : codeTableSize())+(escapeTables != null ? 4+escapeTables.codeTableSize() : 0)];
+            int index = 0;
+            writeInt(map, FORMAT_MAGIC | FORMAT_VERSION, index); index+=4;
+            writeInt(map, map.length-4, index); index+=4;
+            writeInt(map, n, index); index+=4;
+            writeLong(map, fileSize, index); index+=8;
+            flags = (appendsBlockIndex() ? FLAG_BLOCK_INDEX : 0) | (interleaved ? FLAG_INTERLEAVED : 0) | (lz77 ? FLAG_LZ77 : 0)
+                    | (adaptive ? FLAG_ADAPTIVE : 0) | (codebook != null ? FLAG_CODEBOOK : 0) | (escapeTables != null ? FLAG_ESCAPE : 0);
+            map[index++] = (byte)flags;
+            if(codebook != null){
+                writeInt(map, codebook.getId(), index);
+            }
+            else{
+                index = writeCodeTable(map, index);
+            }
+            if(escapeTables != null){
+                escapeSymbol = 0;
+                while(pack(sortedSymbols, escapeSymbol*n, n) != escapeKey){
+                    escapeSymbol++;
+                }
+                writeInt(map, escapeSymbol, index);
+                escapeTables.writeCodeTable(map, index+4);
+            }
+            return map;
+        }
+        private void readCanonicalMap(byte[] map){
+            int index = 0;
+            this.n = readInt(map, index); index+=4;
+            fileSize = readLong(map, index); index+=8;
+            flags = map[index++] & 0xFF;
+            interleaved = (flags & FLAG_INTERLEAVED) != 0;
+            lz77 = (flags & FLAG_LZ77) != 0;
+            adaptive = (flags & FLAG_ADAPTIVE) != 0;
+            if((flags & FLAG_CODEBOOK) != 0){
+                int id = readInt(map, index);
+                if(codebook == null || codebook.getId() != id || codebook.n != n){
+                    throw new IllegalStateException(String.format("File needs codebook %08x (n=%d)", id, n));
+                }
+                codebook.install(this);
+            }
+            else{
+                index = loadCodeTable(map, index);
+            }
+            escapeTables = null;
+            if((flags & FLAG_ESCAPE) != 0){
+                escapeSymbol = readInt(map, index);
+                escapeTables = new Compressor(1);
+                escapeTables.readCodeTable(map, index+4);
+            }
+        }
+        // Canonical code table: maxLen, count per length 1..maxLen, sorted symbols
+        public int codeTableSize(){
+            return 1+4*(lengthCounts.length-1)+sortedSymbols.length;
+        }
+        public int writeCodeTable(byte[] map, int index){
+            int maxLen = lengthCounts.length-1;
+            map[index++] = (byte)maxLen;
+            for(int len=1; len<=maxLen; len++){
+                writeInt(map, lengthCounts[len], index); index+=4;
+            }
+            System.arraycopy(sortedSymbols, 0, map, index, sortedSymbols.length);
+            return index+sortedSymbols.length;
+        }
+        public int readCodeTable(byte[] map, int index){
+            int maxLen = map[index++] & 0xFF;
+            lengthCounts = new int[maxLen+1];
+            int k = 0;
+            for(int len=1; len<=maxLen; len++){
+                lengthCounts[len] = readInt(map, index); index+=4;
+                k += lengthCounts[len];
+            }
+            sortedSymbols = Arrays.copyOfRange(map, index, index+k*n);
+            reader = new CodeReader(lengthCounts, sortedSymbols);
+            return index+k*n;
+        }
+        public void readMap(byte[] map){
+            if(version >= 2){
+                readCanonicalMap(map);
+                return;
+            }
+            int index = 0;
+            this.n = readInt(map, index);
+            codeToBytes = newCodeToBytesMap();
+            fileSize = readLong(map, index+4);
+            index += 4+8;
+            while(index+8+n <= map.length){
+                long key = ((long)(map[index] & 0xFF) << 56) | ((long)(map[index+1] & 0xFF) << 48) | ((long)(map[index+2] & 0xFF) << 40) | ((long)(map[index+3] & 0xFF) << 32) | ((long)(map[index+4] & 0xFF) << 24) | ((long)(map[index+5] & 0xFF) << 16) | ((long)(map[index+6] & 0xFF) << 8) | ((long)(map[index+7] & 0xFF));
+                index+=8;
+                byte[] bytes = new byte[n];
+                for(int i=0; i<n; i++){
+                    bytes[i] = map[index];
+                    index++;
+                }
+                codeToBytes.put(key, bytes);
+            }
+            reader = new CodeReader();
+        }
+        // bytesToCode keyed by the symbol packed big-endian into a long (n <= 8): a direct array for n <= 2,
+        // open addressing with a seeded hash (see LongLongMap) otherwise. A zero value marks an empty slot, since
+        // every code has a length.
+        private class PackedCodeTable {
+            final boolean direct;
+            final long[] keys;
+            final long[] codes;
+            final int shift;
+            final int maxCodeSize;
+            final long seed = nextSeed();
+
+            PackedCodeTable(){
+                long[] symbols = bytesToCode.packedKeys();
+                long[] symbolCodes = bytesToCode.codes();
+                direct = n <= 2;
+                int capacity = 1 << (8*n);
+                if(!direct){
+                    capacity = 4;
+                    while(capacity < 2*symbols.length){
+                        capacity <<= 1;
+                    }
+                }
+                shift = 64-Integer.numberOfTrailingZeros(capacity);
+                keys = direct ? null : new long[capacity];
+                codes = new long[capacity];
+                int max = 0;
+                for(int j=0; j<symbols.length; j++){
+                    long code = symbolCodes[j];
+                    long key = symbols[j];
+                    int i = direct ? (int)key : slot(key);
+                    if(!direct){
+                        keys[i] = key;
+                    }
+                    codes[i] = code;
+                    max = Math.max(max, (int)(code >>> 56));
+                }
+                maxCodeSize = max;
+            }
+            private int slot(long key){
+                int i = (int)(mix(key ^ seed) >>> shift);
+                while(codes[i] != 0 && keys[i] != key){
+                    i = (i+1) & (codes.length-1);
+                }
+                return i;
+            }
+            long get(long key){
+                return direct ? codes[(int)key] : codes[slot(key)];
+            }
+        }
+        // Packs file[i, i+length) big-endian into a long, zero-padding up to n bytes
+        private long pack(byte[] file, int i, int length){
+            long key = 0;
+            for(int j=0; j<n; j++){
+                key = (key << 8) | (j < length ? file[i+j] & 0xFF : 0);
+            }
+            return key;
+        }
+        private long pack(ByteBuffer file, int i, int length){
+            // One 8-byte read per symbol where the buffer allows it; the bytes past the symbol are shifted out
+            if(length >= n && i+8 <= file.limit()){
+                return file.getLong(i) >>> (64-8*n);
+            }
+            long key = 0;
+            for(int j=0; j<n; j++){
+                key = (key << 8) | (j < length ? file.get(i+j) & 0xFF : 0);
+            }
+            return key;
+        }
+        // Worst-case size of encode's output for `length` input bytes
+        public int maxCompressedSize(int length){
+            if(packedTable == null){
+                packedTable = new PackedCodeTable();
+            }
+            int jumpTable = interleaved ? 4*(STREAMS-1)+STREAMS : 0;
+            int symbolBits = packedTable.maxCodeSize;
+            if(escapeTables != null){
+                symbolBits = Math.max(symbolBits, (int)(packedTable.get(escapeKey) >>> 56)+n*escapeTables.packedTable.maxCodeSize);
+            }
+            long size = ((long)(length+n-1)/n*symbolBits+7)/8+8+jumpTable;
+            if(size > Integer.MAX_VALUE-8){
+                throw new IllegalArgumentException("Blocks of " + length + " bytes can outgrow a block frame with these codes");
+            }
+            return (int)size;
+        }
+        // Encodes file[0, length) into out, which must hold maxCompressedSize(length) bytes, and returns the
+        // number of bytes written. Symbols are packed into longs and codes go through a 64-bit accumulator,
+        // so nothing is allocated per symbol.
+        public int encode(byte[] file, int length, byte[] out){
+            return encode(file, 0, length, n, out, 0);
+        }
+        // Encodes each of the STREAMS streams of file[0, length) after a jump table holding the first STREAMS-1 sizes
+        public int encodeInterleaved(byte[] file, int length, byte[] out){
+            return encodeInterleaved(file, length, out, 0);
+        }
+        private int encodeInterleaved(byte[] file, int length, byte[] out, int offset){
+            int position = offset+4*(STREAMS-1);
+            for(int s=0; s<STREAMS; s++){
+                int size = encode(file, s*n, length, STREAMS*n, out, position);
+                if(s < STREAMS-1){
+                    writeInt(out, size, offset+4*s);
+                }
+                position += size;
+            }
+            return position-offset;
+        }
+        // Encodes the symbols starting at from, from+step, ... below length into out at offset
+        private int encode(byte[] file, int from, int length, int step, byte[] out, int offset){
+            PackedCodeTable table = packedTable;
+            if(table == null){
+                packedTable = table = new PackedCodeTable();
+            }
+            if(escapeTables != null){
+                return encodeEscaped(file, from, length, step, out, offset);
+            }
+            long bitBuffer = 0;
+            int free = 64;
+            int totalSize = offset;
+            for(int i=from; i<length; i+=step){
+                long code = table.get(pack(file, i, length-i));
+                if(code == 0){
+                    throw new IllegalArgumentException("Symbol has no code");
+                }
+                int codeSize = (int)(code >>> 56);
+                long value = (code & 0x00FFFFFFFFFFFFFFL) >>> (56-codeSize);
+                if(codeSize < free){
+                    free -= codeSize;
+                    bitBuffer |= value << free;
+                }
+                else{
+                    int spill = codeSize-free;
+                    bitBuffer |= value >>> spill;
+                    writeLong(out, bitBuffer, totalSize);
+                    totalSize += 8;
+                    free = 64-spill;
+                    bitBuffer = spill == 0 ? 0 : value << free;
+                }
+            }
+            for(int bits=64-free; bits>0; bits-=8){
+                out[totalSize++] = (byte)(bitBuffer >>> 56);
+                bitBuffer <<= 8;
+            }
+            return totalSize-offset;
+        }
+        // encode() for FLAG_ESCAPE: a symbol without a code of its own, or equal to the escape symbol, is written as
+        // the escape code followed by its bytes (only those before length) in fallback codes
+        private int encodeEscaped(byte[] file, int from, int length, int step, byte[] out, int offset){
+            PackedCodeTable table = packedTable;
+            PackedCodeTable fallback = escapeTables.packedTable;
+            long escapeCode = table.get(escapeKey);
+            long bitBuffer = 0;
+            int free = 64;
+            int totalSize = offset;
+            for(int i=from; i<length; i+=step){
+                long key = pack(file, i, length-i);
+                long code = table.get(key);
+                int escaped = 0;
+                if(code == 0 || key == escapeKey){
+                    code = escapeCode;
+                    escaped = Math.min(n, length-i);
+                }
+                for(int j=0; j<=escaped; j++){
+                    if(j > 0){
+                        code = fallback.get(file[i+j-1] & 0xFF);
+                    }
+                    int codeSize = (int)(code >>> 56);
+                    long value = (code & 0x00FFFFFFFFFFFFFFL) >>> (56-codeSize);
+                    if(codeSize < free){
+                        free -= codeSize;
+                        bitBuffer |= value << free;
+                    }
+                    else{
+                        int spill = codeSize-free;
+                        bitBuffer |= value >>> spill;
+                        writeLong(out, bitBuffer, totalSize);
+                        totalSize += 8;
+                        free = 64-spill;
+                        bitBuffer = spill == 0 ? 0 : value << free;
+                    }
+                }
+            }
+            for(int bits=64-free; bits>0; bits-=8){
+                out[totalSize++] = (byte)(bitBuffer >>> 56);
+                bitBuffer <<= 8;
+            }
+            return totalSize-offset;
+        }
+        // encode() over buffers, for mapped file regions: encodes file[from, from+length) into out at offset.
+        // Kept separate from the byte[] loop, which is noticeably faster on heap arrays.
+        public int encode(ByteBuffer file, int from, int length, ByteBuffer out, int offset){
+            PackedCodeTable table = packedTable;
+            if(table == null){
+                packedTable = table = new PackedCodeTable();
+            }
+            long bitBuffer = 0;
+            int free = 64;
+            int totalSize = 0;
+            int end = from+length;
+            for(int i=from; i<end; i+=n){
+                long code = table.get(pack(file, i, end-i));
+                if(code == 0){
+                    throw new IllegalArgumentException("Symbol has no code");
+                }
+                int codeSize = (int)(code >>> 56);
+                long value = (code & 0x00FFFFFFFFFFFFFFL) >>> (56-codeSize);
+                if(codeSize < free){
+                    free -= codeSize;
+                    bitBuffer |= value << free;
+                }
+                else{
+                    int spill = codeSize-free;
+                    bitBuffer |= value >>> spill;
+                    out.putLong(offset+totalSize, bitBuffer);
+                    totalSize += 8;
+                    free = 64-spill;
+                    bitBuffer = spill == 0 ? 0 : value << free;
+                }
+            }
+            for(int bits=64-free; bits>0; bits-=8){
+                out.put(offset+totalSize++, (byte)(bitBuffer >>> 56));
+                bitBuffer <<= 8;
+            }
+            return totalSize;
+        }
+        // A block with its own table (marker 1) or the previous block's (marker 0). The new table is built for every
+        // block and kept when the bits it saves exceed its own size; a symbol the old table lacks forces it.
+        private byte[] compressAdaptive(byte[] file){
+            FreqMap counts = newFreqMap();
+            captureFreq(file, counts);
+            freq = counts;
+            bytesToCode = newBytesToCodeMap();
+            constructCanonicalCodes();
+            long newBits = 8L*codeTableSize();
+            long reuseBits = blockTable == null ? Long.MAX_VALUE : 0;
+            for(byte[] bytes : counts.keySet()){
+                long count = counts.get(bytes);
+                newBits += count*(bytesToCode.get(bytes) >>> 56);
+                if(reuseBits != Long.MAX_VALUE){
+                    long code = blockTable.get(pack(bytes, 0, n));
+                    reuseBits = code == 0 ? Long.MAX_VALUE : reuseBits+count*(code >>> 56);
+                }
+            }
+            boolean reuse = reuseBits <= newBits;
+            if(reuse){
+                packedTable = blockTable;
+                bytesToCode = blockCodes;
+                lengthCounts = blockLengthCounts;
+                sortedSymbols = blockSymbols;
+            }
+            else{
+                packedTable = blockTable = new PackedCodeTable();
+                blockCodes = bytesToCode;
+                blockLengthCounts = lengthCounts;
+                blockSymbols = sortedSymbols;
+                blockTables++;
+            }
+            int tableSize = reuse ? 0 : codeTableSize();
+            byte[] out = new byte[1+tableSize+maxCompressedSize(file.length)];
+            out[0] = (byte)(reuse ? 0 : 1);
+            if(!reuse){
+                writeCodeTable(out, 1);
+            }
+            int size = interleaved ? encodeInterleaved(file, file.length, out, 1+tableSize) : encode(file, 0, file.length, n, out, 1+tableSize);
+            return Arrays.copyOf(out, 1+tableSize+size);
+        }
+        public byte[] compress(byte[] file, int compressedSize){
+            long start = System.nanoTime();
+            try {
+                return compressCode(file, compressedSize);
+            }
+            finally {
+                stats.codingNanos.add(System.nanoTime()-start);
+            }
+        }
+        private byte[] compressCode(byte[] file, int compressedSize){
+            if(lz77){
+                return lzCodec().compress(file, file.length);
+            }
+            if(adaptive){
+                return compressAdaptive(file);
+            }
+            if(packedEncoder && n <= 8){
+                byte[] out = new byte[maxCompressedSize(file.length)];
+                return Arrays.copyOf(out, interleaved ? encodeInterleaved(file, file.length, out) : encode(file, file.length, out));
+            }
+            CodeWriter writer = new CodeWriter(compressedSize);
+            int l = file.length;
+            for(int i=0; i+n-1 < l; i += n){
+                byte[] bytes = new byte[n];
+                for(int j=0; j<n; j++){
+                    bytes[j] = file[i+j];
+                }
+                long code = bytesToCode.get(bytes);
+                //System.out.println(bytes);
+                writer.write(code);
+            }
+            if(l%n != 0){
+                int m=l%n;
+                byte[] bytes = new byte[n];
+                for(int i=0; i<n; i++){
+                    if(l-m+i < l){
+                        bytes[i] = file[l-m+i];
+                    }
+                    else{
+                        bytes[i] = 0x00;
+                    }
+                }
+                long code = bytesToCode.get(bytes);
+                writer.write(code);
+            }
+            writer.flush();
+            //System.out.println(writer.totalSize);
+            return writer.getCompressed();
+        }
+        private class CodeReader{
+            // Decodes a whole symbol per lookup: the primary table is indexed by the next primaryBits
+            // of input, codes longer than that chain into secondary tables of at most SECONDARY_BITS.
+            // Entries are (symbolIndex << 8 | length) for leaves and LINK | (offset << 8 | width) for links.
+            private static final int PRIMARY_BITS = 11;
+            private static final int SECONDARY_BITS = 8;
+            private static final long LINK = Long.MIN_VALUE;
+            int primaryBits;
+            long[] table;
+            int tableSize;
+            byte[] symbols;
+
+            CodeReader(){
+                int k = codeToBytes.keySet().size();
+                // (left-aligned code << 8 | length) sorts codes by value; flipping the sign bit makes the signed sort unsigned
+                long[] keys = new long[k];
+                int index = 0;
+                for(long key : codeToBytes.keySet()){
+                    keys[index++] = ((key << 8) | (key >>> 56)) ^ Long.MIN_VALUE;
+                }
+                Arrays.sort(keys);
+                long[] codes = new long[k];
+                int[] lens = new int[k];
+                symbols = new byte[k*n];
+                for(int i=0; i<k; i++){
+                    long key = keys[i] ^ Long.MIN_VALUE;
+                    lens[i] = (int)(key & 0xFF);
+                    codes[i] = key & ~0xFFL;
+                    byte[] bytes = codeToBytes.get((key >>> 8) | ((long)lens[i] << 56));
+                    System.arraycopy(bytes, 0, symbols, i*n, n);
+                }
+                buildTables(codes, lens);
+            }
+            CodeReader(int[] lengthCounts, byte[] symbols){
+                this.symbols = symbols;
+                int k = symbols.length/n;
+                long[] codes = new long[k];
+                int[] lens = new int[k];
+                long code = 0;
+                int i = 0;
+                for(int len=1; len<lengthCounts.length; len++){
+                    for(int j=0; j<lengthCounts[len]; j++){
+                        codes[i] = code << (64-len);
+                        lens[i] = len;
+                        code++;
+                        i++;
+                    }
+                    code <<= 1;
+                }
+                buildTables(codes, lens);
+            }
+            private void buildTables(long[] codes, int[] lens){
+                int maxLen = 0;
+                for(int len : lens){
+                    maxLen = Math.max(maxLen, len);
+                }
+                primaryBits = Math.max(1, Math.min(PRIMARY_BITS, maxLen));
+                table = new long[1 << primaryBits];
+                build(codes, lens, 0, codes.length, 0, primaryBits);
+            }
+            private int allocate(int size){
+                if(tableSize+size > table.length){
+                    table = Arrays.copyOf(table, Math.max(tableSize+size, table.length*2));
+                }
+                int base = tableSize;
+                tableSize += size;
+                return base;
+            }
+            // codes[from..to) share their first `consumed` bits and are sorted by value
+            private int build(long[] codes, int[] lens, int from, int to, int consumed, int bits){
+                int base = allocate(1 << bits);
+                int i = from;
+                while(i < to){
+                    int index = (int)((codes[i] << consumed) >>> (64-bits));
+                    int len = lens[i]-consumed;
+                    if(len <= bits){
+                        long entry = ((long)i << 8) | len;
+                        Arrays.fill(table, base+index, base+index+(1 << (bits-len)), entry);
+                        i++;
+                    }
+                    else{
+                        int j = i;
+                        int maxLen = 0;
+                        while(j < to && (int)((codes[j] << consumed) >>> (64-bits)) == index){
+                            maxLen = Math.max(maxLen, lens[j]);
+                            j++;
+                        }
+                        int width = Math.min(maxLen-consumed-bits, SECONDARY_BITS);
+                        int sub = build(codes, lens, i, j, consumed+bits, width);
+                        table[base+index] = LINK | ((long)sub << 8) | width;
+                        i = j;
+                    }
+                }
+                return base;
+            }
+            // Decodes file[from, length) into out[offset, offset+finalSize); the padding bits of the last byte are never consumed
+            public void read(byte[] file, int from, int length, byte[] out, int offset, int finalSize){
+                long bitBuffer = 0;
+                int bitCount = 0;
+                int index = from;
+                int end = offset+finalSize;
+                int o = offset;
+                while(o < end){
+                    while(bitCount <= 56){
+                        if(index < length){
+                            bitBuffer |= (long)(file[index] & 0xFF) << (56-bitCount);
+                        }
+                        index++;
+                        bitCount += 8;
+                    }
+                    int width = primaryBits;
+                    long entry = table[(int)(bitBuffer >>> (64-width))];
+                    while(entry < 0){
+                        bitBuffer <<= width;
+                        bitCount -= width;
+                        while(bitCount <= 56){
+                            if(index < length){
+                                bitBuffer |= (long)(file[index] & 0xFF) << (56-bitCount);
+                            }
+                            index++;
+                            bitCount += 8;
+                        }
+                        width = (int)(entry & 0xFF);
+                        entry = table[(int)((entry & ~LINK) >>> 8) + (int)(bitBuffer >>> (64-width))];
+                    }
+                    if(entry == 0){
+                        throw new IllegalStateException("Invalid code in compressed block");
+                    }
+                    int len = (int)(entry & 0xFF);
+                    bitBuffer <<= len;
+                    bitCount -= len;
+                    int symbol = (int)(entry >>> 8)*n;
+                    int count = Math.min(n, end-o);
+                    System.arraycopy(symbols, symbol, out, o, count);
+                    o += count;
+                }
+            }
+            // read() for FLAG_ESCAPE blocks: the escape symbol is replaced by the next bytes, decoded with fallback
+            public void readEscaped(byte[] file, int from, int length, byte[] out, int offset, int finalSize, CodeReader fallback, int escapeSymbol){
+                long bitBuffer = 0;
+                int bitCount = 0;
+                int index = from;
+                int end = offset+finalSize;
+                int o = offset;
+                while(o < end){
+                    while(bitCount <= 56){
+                        if(index < length){
+                            bitBuffer |= (long)(file[index] & 0xFF) << (56-bitCount);
+                        }
+                        index++;
+                        bitCount += 8;
+                    }
+                    long entry = table[(int)(bitBuffer >>> (64-primaryBits))];
+                    if(entry < 0){
+                        entry = resolve(entry, bitBuffer);
+                    }
+                    if(entry == 0){
+                        throw new IllegalStateException("Invalid code in compressed block");
+                    }
+                    int len = (int)(entry & 0xFF);
+                    bitBuffer <<= len;
+                    bitCount -= len;
+                    int symbol = (int)(entry >>> 8);
+                    int count = Math.min(n, end-o);
+                    if(symbol != escapeSymbol){
+                        System.arraycopy(symbols, symbol*n, out, o, count);
+                        o += count;
+                        continue;
+                    }
+                    for(int j=0; j<count; j++){
+                        while(bitCount <= 56){
+                            if(index < length){
+                                bitBuffer |= (long)(file[index] & 0xFF) << (56-bitCount);
+                            }
+                            index++;
+                            bitCount += 8;
+                        }
+                        entry = fallback.table[(int)(bitBuffer >>> (64-fallback.primaryBits))];
+                        if(entry < 0){
+                            entry = fallback.resolve(entry, bitBuffer);
+                        }
+                        if(entry == 0){
+                            throw new IllegalStateException("Invalid code in compressed block");
+                        }
+                        len = (int)(entry & 0xFF);
+                        bitBuffer <<= len;
+                        bitCount -= len;
+                        out[o++] = fallback.symbols[(int)(entry >>> 8)];
+                    }
+                }
+            }
+            // Follows the links of a primary entry using the bits at the top of bitBuffer, which holds at least 57
+            // valid bits (codes are at most 56 long). The returned leaf carries the full code length.
+            private long resolve(long entry, long bitBuffer){
+                int consumed = primaryBits;
+                while(entry < 0){
+                    int width = (int)(entry & 0xFF);
+                    entry = table[(int)((entry & ~LINK) >>> 8) + (int)((bitBuffer << consumed) >>> (64-width))];
+                    if(entry == 0){
+                        throw new IllegalStateException("Invalid code in compressed block");
+                    }
+                    if(entry > 0){
+                        return (entry & ~0xFFL) | (consumed+(entry & 0xFF));
+                    }
+                    consumed += width;
+                }
+                return entry;
+            }
+            // read() for FLAG_INTERLEAVED blocks. The four streams have independent bit positions, so the lookups
+            // of one round don't wait on each other.
+            public void readInterleaved(byte[] file, int from, int length, byte[] out, int offset, int finalSize){
+                int e0 = from+4*(STREAMS-1)+readInt(file, from);
+                int e1 = e0+readInt(file, from+4);
+                int e2 = e1+readInt(file, from+8);
+                int e3 = length;
+                int i0 = from+4*(STREAMS-1), i1 = e0, i2 = e1, i3 = e2;
+                long b0 = 0, b1 = 0, b2 = 0, b3 = 0;
+                int c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+                int shift = 64-primaryBits;
+                int end = offset+finalSize;
+                int o = offset;
+                int round = STREAMS*n;
+                while(end-o >= round){
+                    while(c0 <= 56){ if(i0 < e0) b0 |= (long)(file[i0] & 0xFF) << (56-c0); i0++; c0 += 8; }
+                    while(c1 <= 56){ if(i1 < e1) b1 |= (long)(file[i1] & 0xFF) << (56-c1); i1++; c1 += 8; }
+                    while(c2 <= 56){ if(i2 < e2) b2 |= (long)(file[i2] & 0xFF) << (56-c2); i2++; c2 += 8; }
+                    while(c3 <= 56){ if(i3 < e3) b3 |= (long)(file[i3] & 0xFF) << (56-c3); i3++; c3 += 8; }
+                    long x0 = table[(int)(b0 >>> shift)];
+                    long x1 = table[(int)(b1 >>> shift)];
+                    long x2 = table[(int)(b2 >>> shift)];
+                    long x3 = table[(int)(b3 >>> shift)];
+                    if((x0 | x1 | x2 | x3) < 0){
+                        x0 = resolve(x0, b0);
+                        x1 = resolve(x1, b1);
+                        x2 = resolve(x2, b2);
+                        x3 = resolve(x3, b3);
+                    }
+                    if(x0 == 0 || x1 == 0 || x2 == 0 || x3 == 0){
+                        throw new IllegalStateException("Invalid code in compressed block");
+                    }
+                    int l0 = (int)(x0 & 0xFF), l1 = (int)(x1 & 0xFF), l2 = (int)(x2 & 0xFF), l3 = (int)(x3 & 0xFF);
+                    b0 <<= l0; c0 -= l0;
+                    b1 <<= l1; c1 -= l1;
+                    b2 <<= l2; c2 -= l2;
+                    b3 <<= l3; c3 -= l3;
+                    if(n == 1){
+                        out[o] = symbols[(int)(x0 >>> 8)];
+                        out[o+1] = symbols[(int)(x1 >>> 8)];
+                        out[o+2] = symbols[(int)(x2 >>> 8)];
+                        out[o+3] = symbols[(int)(x3 >>> 8)];
+                    }
+                    else{
+                        System.arraycopy(symbols, (int)(x0 >>> 8)*n, out, o, n);
+                        System.arraycopy(symbols, (int)(x1 >>> 8)*n, out, o+n, n);
+                        System.arraycopy(symbols, (int)(x2 >>> 8)*n, out, o+2*n, n);
+                        System.arraycopy(symbols, (int)(x3 >>> 8)*n, out, o+3*n, n);
+                    }
+                    o += round;
+                }
+                // at most STREAMS symbols are left (the last one may be partial), one from each stream in order
+                long[] bitBuffers = {b0, b1, b2, b3};
+                int[] bitCounts = {c0, c1, c2, c3};
+                int[] indexes = {i0, i1, i2, i3};
+                int[] ends = {e0, e1, e2, e3};
+                for(int s=0; o < end; s++){
+                    long bitBuffer = bitBuffers[s];
+                    int bitCount = bitCounts[s];
+                    int index = indexes[s];
+                    while(bitCount <= 56){
+                        if(index < ends[s]){
+                            bitBuffer |= (long)(file[index] & 0xFF) << (56-bitCount);
+                        }
+                        index++;
+                        bitCount += 8;
+                    }
+                    long entry = resolve(table[(int)(bitBuffer >>> shift)], bitBuffer);
+                    if(entry == 0){
+                        throw new IllegalStateException("Invalid code in compressed block");
+                    }
+                    int count = Math.min(n, end-o);
+                    System.arraycopy(symbols, (int)(entry >>> 8)*n, out, o, count);
+                    o += count;
+                }
+            }
+        }
+        // LZ77 stage in front of the Huffman coder (FLAG_LZ77). Every block is matched and coded on its own, so blocks
+        // still decode independently: a hash-chain match finder over a WINDOW-byte window turns the block into literals
+        // and (length, distance) matches, which are coded with two per-block Huffman alphabets, literals/lengths and
+        // distances. The payload is the code lengths of both alphabets as 4-bit nibbles followed by the codes, MSB first.
+        // Lengths and distances share one bucketing: values below 4 are their own code, larger values v get
+        // code 2k + (bit k-1 of v) for k = floor(log2 v), followed by the low k-1 bits of v.
+        private class Lz77 {
+            private static final int MIN_MATCH = 4;
+            private static final int MAX_MATCH = 1<<16;
+            private static final int WINDOW = 1<<16;
+            private static final int HASH_BITS = 15;
+            private static final int BUCKETS = 32;
+            private static final int LITLEN_SYMBOLS = 256+BUCKETS;
+            private static final int TABLE_SIZE = (LITLEN_SYMBOLS+BUCKETS)/2;
+            private static final int MAX_BITS = 12;
+            final int chain;
+            final int niceLength;
+            final boolean lazy;
+            // hash heads and chains of the block being matched, reused by the thread's next block
+            private final ThreadLocal<int[][]> matchState = ThreadLocal.withInitial(() -> new int[][]{new int[1 << HASH_BITS], new int[WINDOW]});
+
+            Lz77(int level){
+                int[] parameters = LZ_LEVELS[Math.max(1, Math.min(LZ_LEVELS.length, level))-1];
+                chain = parameters[0];
+                niceLength = parameters[1];
+                lazy = parameters[2] != 0;
+            }
+            private int bucket(int v){
+                if(v < 4){
+                    return v;
+                }
+                int k = 31-Integer.numberOfLeadingZeros(v);
+                return 2*k + ((v >>> (k-1)) & 1);
+            }
+            private int extraBits(int bucket){
+                return bucket < 4 ? 0 : (bucket >>> 1)-1;
+            }
+            private int base(int bucket){
+                return bucket < 4 ? bucket : (2 | (bucket & 1)) << ((bucket >>> 1)-1);
+            }
+            private int hash(byte[] data, int i){
+                int word = ((data[i] & 0xFF) << 24) | ((data[i+1] & 0xFF) << 16) | ((data[i+2] & 0xFF) << 8) | (data[i+3] & 0xFF);
+                return (word * 0x9E3779B1) >>> (32-HASH_BITS);
+            }
+            // Longest match for data[pos..] among the earlier positions chained from head, as length << 32 | distance
+            private long longestMatch(byte[] data, int pos, int end, int[] head, int[] prev){
+                int best = MIN_MATCH-1;
+                int bestDistance = 0;
+                int max = Math.min(MAX_MATCH, end-pos);
+                int candidate = head[hash(data, pos)];
+                for(int tries=chain; candidate >= 0 && tries > 0; tries--){
+                    int distance = pos-candidate;
+                    if(distance <= 0 || distance > WINDOW){
+                        break;
+                    }
+                    if(data[candidate+best] == data[pos+best]){
+                        int len = 0;
+                        while(len < max && data[candidate+len] == data[pos+len]){
+                            len++;
+                        }
+                        if(len > best){
+                            best = len;
+                            bestDistance = distance;
+                            if(len >= niceLength || len == max){
+                                break;
+                            }
+                        }
+                    }
+                    candidate = prev[candidate & (WINDOW-1)];
+                }
+                return best >= MIN_MATCH ? ((long)best << 32) | bestDistance : 0;
+            }
+            private void insert(byte[] data, int pos, int[] head, int[] prev){
+                int h = hash(data, pos);
+                prev[pos & (WINDOW-1)] = head[h];
+                head[h] = pos;
+            }
+            // Literals as their byte value, matches as length << 32 | distance
+            private int tokenize(byte[] data, int length, long[] tokens){
+                int[][] state = matchState.get();
+                int[] head = state[0];
+                int[] prev = state[1];
+                Arrays.fill(head, -1);
+                int count = 0;
+                int pos = 0;
+                int last = length-MIN_MATCH;
+                while(pos < length){
+                    long match = pos <= last ? longestMatch(data, pos, length, head, prev) : 0;
+                    if(match == 0){
+                        if(pos <= last){
+                            insert(data, pos, head, prev);
+                        }
+                        tokens[count++] = data[pos++] & 0xFF;
+                        continue;
+                    }
+                    insert(data, pos, head, prev);
+                    if(lazy && (int)(match >>> 32) < niceLength && pos+1 <= last){
+                        // emit a literal instead if the match starting one byte later is longer
+                        long next = longestMatch(data, pos+1, length, head, prev);
+                        if((next >>> 32) > (match >>> 32)){
+                            tokens[count++] = data[pos++] & 0xFF;
+                            continue;
+                        }
+                    }
+                    tokens[count++] = match;
+                    int matchEnd = pos+(int)(match >>> 32);
+                    for(pos++; pos < matchEnd; pos++){
+                        if(pos <= last){
+                            insert(data, pos, head, prev);
+                        }
+                    }
+                }
+                return count;
+            }
+            // Canonical codes for the given lengths, left-aligned in an int as code << (32-len)
+            private int[] canonicalCodes(int[] lengths){
+                int[] counts = new int[MAX_BITS+1];
+                for(int len : lengths){
+                    counts[len]++;
+                }
+                counts[0] = 0;
+                int[] next = new int[MAX_BITS+2];
+                int code = 0;
+                for(int len=1; len<=MAX_BITS; len++){
+                    code = (code+counts[len-1]) << 1;
+                    next[len] = code;
+                }
+                int[] codes = new int[lengths.length];
+                for(int i=0; i<lengths.length; i++){
+                    if(lengths[i] > 0){
+                        codes[i] = next[lengths[i]]++;
+                    }
+                }
+                return codes;
+            }
+            private int[] codeLengths(long[] counts){
+                int used = 0;
+                for(long count : counts){
+                    if(count > 0) used++;
+                }
+                long[] weights = new long[used];
+                int k = 0;
+                for(long count : counts){
+                    if(count > 0) weights[k++] = count;
+                }
+                int[] lengths = new int[counts.length];
+                if(used == 0){
+                    return lengths;
+                }
+                int[] limited = limitCodeLengths(weights, MAX_BITS);
+                k = 0;
+                for(int i=0; i<counts.length; i++){
+                    if(counts[i] > 0) lengths[i] = limited[k++];
+                }
+                return lengths;
+            }
+            public byte[] compress(byte[] data, int length){
+                long[] tokens = new long[length];
+                int count = tokenize(data, length, tokens);
+                long[] litlenCounts = new long[LITLEN_SYMBOLS];
+                long[] distanceCounts = new long[BUCKETS];
+                for(int t=0; t<count; t++){
+                    long token = tokens[t];
+                    if(token < 256){
+                        litlenCounts[(int)token]++;
+                    }
+                    else{
+                        litlenCounts[256+bucket((int)(token >>> 32)-MIN_MATCH)]++;
+                        distanceCounts[bucket((int)token-1)]++;
+                    }
+                }
+                int[] litlenLengths = codeLengths(litlenCounts);
+                int[] distanceLengths = codeLengths(distanceCounts);
+                int[] litlenCodes = canonicalCodes(litlenLengths);
+                int[] distanceCodes = canonicalCodes(distanceLengths);
+                // literals take at most MAX_BITS per byte, matches at most 2*(MAX_BITS+15) bits for 4 or more bytes
+                byte[] out = new byte[TABLE_SIZE+(int)(((long)length*MAX_BITS+7)/8)+16];
+                for(int i=0; i<LITLEN_SYMBOLS+BUCKETS; i+=2){
+                    int hi = i < LITLEN_SYMBOLS ? litlenLengths[i] : distanceLengths[i-LITLEN_SYMBOLS];
+                    int lo = i+1 < LITLEN_SYMBOLS ? litlenLengths[i+1] : distanceLengths[i+1-LITLEN_SYMBOLS];
+                    out[i/2] = (byte)(hi << 4 | lo);
+                }
+                long bitBuffer = 0;
+                int free = 64;
+                int size = TABLE_SIZE;
+                for(int t=0; t<count; t++){
+                    long token = tokens[t];
+                    // up to four (value, bits) fields per token
+                    for(int field=0; field<4; field++){
+                        int value, bits;
+                        if(token < 256){
+                            if(field > 0) break;
+                            value = litlenCodes[(int)token];
+                            bits = litlenLengths[(int)token];
+                        }
+                        else{
+                            int v = field < 2 ? (int)(token >>> 32)-MIN_MATCH : (int)token-1;
+                            int b = bucket(v);
+                            if((field & 1) == 0){
+                                int symbol = field == 0 ? 256+b : b;
+                                value = field == 0 ? litlenCodes[symbol] : distanceCodes[symbol];
+                                bits = field == 0 ? litlenLengths[symbol] : distanceLengths[symbol];
+                            }
+                            else{
+                                bits = extraBits(b);
+                                value = v-base(b);
+                            }
+                        }
+                        if(bits == 0){
+                            continue;
+                        }
+                        if(bits < free){
+                            free -= bits;
+                            bitBuffer |= (long)value << free;
+                        }
+                        else{
+                            int spill = bits-free;
+                            bitBuffer |= (long)value >>> spill;
+                            writeLong(out, bitBuffer, size);
+                            size += 8;
+                            free = 64-spill;
+                            bitBuffer = spill == 0 ? 0 : (long)value << free;
+                        }
+                    }
+                }
+                for(int bits=64-free; bits>0; bits-=8){
+                    out[size++] = (byte)(bitBuffer >>> 56);
+                    bitBuffer <<= 8;
+                }
+                return Arrays.copyOf(out, size);
+            }
+            // Decode table indexed by the next MAX_BITS bits: symbol << 4 | length, 0 for bit patterns no code starts with
+            private int[] decodeTable(int[] lengths){
+                int[] codes = canonicalCodes(lengths);
+                int[] table = new int[1 << MAX_BITS];
+                for(int i=0; i<lengths.length; i++){
+                    int len = lengths[i];
+                    if(len > 0){
+                        int first = codes[i] << (MAX_BITS-len);
+                        Arrays.fill(table, first, first+(1 << (MAX_BITS-len)), i << 4 | len);
+                    }
+                }
+                return table;
+            }
+            public void decompress(byte[] file, int length, byte[] out, int offset, int finalSize){
+                int[] litlenLengths = new int[LITLEN_SYMBOLS];
+                int[] distanceLengths = new int[BUCKETS];
+                for(int i=0; i<LITLEN_SYMBOLS+BUCKETS; i++){
+                    int len = (file[i/2] >>> ((i & 1) == 0 ? 4 : 0)) & 0xF;
+                    if(i < LITLEN_SYMBOLS) litlenLengths[i] = len; else distanceLengths[i-LITLEN_SYMBOLS] = len;
+                }
+                int[] litlenTable = decodeTable(litlenLengths);
+                int[] distanceTable = decodeTable(distanceLengths);
+                long bitBuffer = 0;
+                int bitCount = 0;
+                int index = TABLE_SIZE;
+                int end = offset+finalSize;
+                int o = offset;
+                while(o < end){
+                    // one refill covers a whole match: 2*(MAX_BITS+15) <= 57 bits
+                    while(bitCount <= 56){
+                        if(index < length){
+                            bitBuffer |= (long)(file[index] & 0xFF) << (56-bitCount);
+                        }
+                        index++;
+                        bitCount += 8;
+                    }
+                    int entry = litlenTable[(int)(bitBuffer >>> (64-MAX_BITS))];
+                    if(entry == 0){
+                        throw new IllegalStateException("Invalid code in compressed block");
+                    }
+                    int len = entry & 0xF;
+                    bitBuffer <<= len;
+                    bitCount -= len;
+                    int symbol = entry >>> 4;
+                    if(symbol < 256){
+                        out[o++] = (byte)symbol;
+                        continue;
+                    }
+                    int b = symbol-256;
+                    int extra = extraBits(b);
+                    int matchLength = MIN_MATCH+base(b)+(extra == 0 ? 0 : (int)(bitBuffer >>> (64-extra)));
+                    bitBuffer <<= extra;
+                    bitCount -= extra;
+                    entry = distanceTable[(int)(bitBuffer >>> (64-MAX_BITS))];
+                    if(entry == 0){
+                        throw new IllegalStateException("Invalid code in compressed block");
+                    }
+                    len = entry & 0xF;
+                    bitBuffer <<= len;
+                    bitCount -= len;
+                    b = entry >>> 4;
+                    extra = extraBits(b);
+                    int distance = 1+base(b)+(extra == 0 ? 0 : (int)(bitBuffer >>> (64-extra)));
+                    bitBuffer <<= extra;
+                    bitCount -= extra;
+                    if(distance > o-offset || matchLength > end-o){
+                        throw new IllegalStateException("Invalid match in compressed block");
+                    }
+                    for(int from=o-distance, stop=o+matchLength; o < stop; ){
+                        out[o++] = out[from++];
+                    }
+                }
+            }
+        }
+        private Lz77 lzCodec(){
+            Lz77 codec = lz;
+            if(codec == null){
+                lz = codec = new Lz77(lzLevel);
+            }
+            return codec;
+        }
+        public byte[] decompress(byte[] file, int decompressedSize){
+            byte[] result = new byte[decompressedSize];
+            decompress(file, file.length, result, 0, decompressedSize);
+            return result;
+        }
+        // Decodes file[0, length) into out[offset, offset+decompressedSize), so callers can reuse both buffers
+        public void decompress(byte[] file, int length, byte[] out, int offset, int decompressedSize){
+            if(reader == null && !lz77){
+                reader = lengthCounts != null ? new CodeReader(lengthCounts, sortedSymbols) : new CodeReader();
+            }
+            long start = System.nanoTime();
+            int from = 0;
+            if(adaptive){
+                // a new table replaces the reader for this and the following blocks
+                from = file[0] != 0 ? readCodeTable(file, 1) : 1;
+            }
+            if(lz77){
+                lzCodec().decompress(file, length, out, offset, decompressedSize);
+            }
+            else if(interleaved){
+                reader.readInterleaved(file, from, length, out, offset, decompressedSize);
+            }
+            else if(escapeTables != null){
+                reader.readEscaped(file, from, length, out, offset, decompressedSize, escapeTables.reader, escapeSymbol);
+            }
+            else{
+                reader.read(file, from, length, out, offset, decompressedSize);
+            }
+            stats.codingNanos.add(System.nanoTime()-start);
+        }
+
+        // A block is prefixed with its compressed and decompressed lengths
+        public byte[] compressBlock(byte[] bytes){
+            // Huffman output rarely outgrows its input, and the writer grows if it does
+            byte[] compressedBlock = compress(bytes, bytes.length);
+            byte[] compressedBlockWithSize = new byte[compressedBlock.length+8];
+            writeInt(compressedBlockWithSize, compressedBlock.length, 0);
+            writeInt(compressedBlockWithSize, bytes.length, 4);
+            System.arraycopy(compressedBlock, 0, compressedBlockWithSize, 8, compressedBlock.length);
+            return compressedBlockWithSize;
+        }
+        private void writeBlock(FileChannel outputChannel, byte[] block) throws Exception {
+            writeBlock(outputChannel, block, block.length);
+        }
+        // Writes the framed block in block[0, size)
+        private void writeBlock(FileChannel outputChannel, byte[] block, int size) throws Exception {
+            long start = System.nanoTime();
+            int length = readInt(block, 4);
+            blockIndex.add(new long[]{outputChannel.position(), size-8, length});
+            ByteBuffer buffer = ByteBuffer.wrap(block, 0, size);
+            while(buffer.hasRemaining()){
+                outputChannel.write(buffer);
+            }
+            stats.blocks++;
+            stats.symbols += (length+n-1)/n;
+            stats.ioNanos.add(System.nanoTime()-start);
+        }
+        // Whether compressFile appends a block index: when writeBlockIndex asks for one, except for codebook files of
+        // a single block, which need no index to be read
+        private boolean appendsBlockIndex(){
+            return canonical && writeBlockIndex && (codebook == null || fileSize > BUFFER_SIZE);
+        }
+        // Written through a small buffer, as the index of a 100GB file in small blocks runs to hundreds of MB
+        public void writeBlockIndex(FileChannel outputChannel) throws Exception {
+            long offset = outputChannel.position();
+            ByteBuffer index = ByteBuffer.allocate(4096*INDEX_ENTRY_SIZE);
+            for(long[] entry : blockIndex){
+                if(index.remaining() < INDEX_ENTRY_SIZE){
+                    writeFully(outputChannel, index);
+                }
+                index.putLong(entry[0]).putInt((int)entry[1]).putInt((int)entry[2]);
+            }
+            if(index.remaining() < INDEX_TRAILER_SIZE){
+                writeFully(outputChannel, index);
+            }
+            index.putInt(blockIndex.size()).putLong(offset).putInt(INDEX_MAGIC);
+            writeFully(outputChannel, index);
+        }
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws Exception {
+            buffer.flip();
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        public void readBlockIndex(FileChannel inputChannel) throws Exception {
+            long[] trailer = readIndexTrailer(inputChannel);
+            int count = (int)trailer[0];
+            ByteBuffer entries = ByteBuffer.allocate(4096*INDEX_ENTRY_SIZE);
+            blockIndex = new ArrayList<>(count);
+            for(int i=0; i<count; i+=4096){
+                entries.clear().limit(Math.min(4096, count-i)*INDEX_ENTRY_SIZE);
+                readFully(inputChannel, entries, trailer[1]+(long)i*INDEX_ENTRY_SIZE);
+                entries.flip();
+                while(entries.hasRemaining()){
+                    blockIndex.add(readIndexEntry(entries, inputChannel.size()));
+                }
+            }
+        }
+        // {entry count, offset of the first entry} from the index trailer at the end of the file
+        private long[] readIndexTrailer(FileChannel inputChannel) throws Exception {
+            if((flags & FLAG_BLOCK_INDEX) == 0){
+                throw new IllegalStateException("File has no block index");
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(INDEX_TRAILER_SIZE);
+            readFully(inputChannel, trailer, inputChannel.size()-INDEX_TRAILER_SIZE);
+            trailer.flip();
+            int count = trailer.getInt();
+            long offset = trailer.getLong();
+            if(trailer.getInt() != INDEX_MAGIC){
+                throw new IllegalStateException("Corrupt block index");
+            }
+            if(count < 0 || offset < 0 || offset+(long)count*INDEX_ENTRY_SIZE > inputChannel.size()){
+                throw new IllegalStateException("Corrupt block index");
+            }
+            return new long[]{count, offset};
+        }
+        // Entry i of the index at offset, read on its own
+        private long[] readIndexEntry(FileChannel inputChannel, long offset, int i) throws Exception {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            readFully(inputChannel, entry, offset+(long)i*INDEX_ENTRY_SIZE);
+            entry.flip();
+            return readIndexEntry(entry, inputChannel.size());
+        }
+        private static long[] readIndexEntry(ByteBuffer entries, long size){
+            long[] entry = {entries.getLong(), entries.getInt(), entries.getInt()};
+            if(entry[0] < 0){
+                throw new IllegalStateException("Corrupt block index");
+            }
+            checkFrame((int)entry[1], (int)entry[2], size-entry[0]-8);
+            return entry;
+        }
+        // Without an index the block prefixes are walked, skipping the payloads, so no block is decoded
+        private void scanBlockIndex(FileChannel inputChannel) throws Exception {
+            blockIndex = new ArrayList<>();
+            ByteBuffer sizeBuffer = ByteBuffer.allocate(8);
+            long position = inputChannel.position();
+            long decompressed = 0;
+            while((version < 2 || decompressed < fileSize) && position+8 <= inputChannel.size()){
+                sizeBuffer.clear();
+                readFully(inputChannel, sizeBuffer, position);
+                sizeBuffer.flip();
+                int blockSize = sizeBuffer.getInt();
+                int finalSize = sizeBuffer.getInt();
+                checkFrame(blockSize, finalSize, inputChannel.size()-position-8);
+                blockIndex.add(new long[]{position, blockSize, finalSize});
+                position += 8+blockSize;
+                decompressed += finalSize;
+            }
+        }
+        // A code table trained once on sample data and shared by many files, which then skip the frequency pass and
+        // the tree build and carry only the codebook's id. For n <= 2 every symbol gets a code (training counts each
+        // possible symbol once more), so any input can be encoded; for larger n, input with a symbol the samples
+        // lacked fails with "Symbol has no code".
+        public static class Codebook {
+            private int id;
+            final int n;
+            // holds the table and its prebuilt encode and/or decode structures; never modified once built
+            final Compressor tables;
+
+            private Codebook(Compressor tables){
+                this.tables = tables;
+                this.n = tables.n;
+            }
+            // An empty compressor to hold a table for n, without allocating the maps n would need
+            private static Compressor tablesFor(int n){
+                Compressor tables = new Compressor(1);
+                tables.n = n;
+                return tables;
+            }
+            void install(Compressor compressor){
+                compressor.lengthCounts = tables.lengthCounts;
+                compressor.sortedSymbols = tables.sortedSymbols;
+                if(tables.packedTable != null){
+                    compressor.bytesToCode = tables.bytesToCode;
+                }
+                // missing structures are built lazily from the table
+                compressor.packedTable = tables.packedTable;
+                compressor.reader = tables.reader;
+            }
+            public int getId(){
+                if(id == 0){
+                    byte[] table = new byte[tables.codeTableSize()];
+                    tables.writeCodeTable(table, 0);
+                    CRC32 crc = new CRC32();
+                    crc.update(n);
+                    crc.update(table);
+                    id = (int)crc.getValue();
+                }
+                return id;
+            }
+            public void save(String path) throws Exception {
+                byte[] file = new byte[4+4+4+tables.codeTableSize()];
+                tables.writeInt(file, CODEBOOK_MAGIC, 0);
+                tables.writeInt(file, getId(), 4);
+                tables.writeInt(file, n, 8);
+                tables.writeCodeTable(file, 12);
+                Files.write(Paths.get(path), file);
+            }
+            public static Codebook load(String path) throws Exception {
+                byte[] file = Files.readAllBytes(Paths.get(path));
+                Compressor reader = new Compressor(1);
+                if(file.length < 12 || reader.readInt(file, 0) != CODEBOOK_MAGIC){
+                    throw new IllegalArgumentException(path + " is not a codebook");
+                }
+                Codebook codebook = read(reader.readInt(file, 8), file, 12);
+                codebook.tables.bytesToCode = codebook.tables.newBytesToCodeMap();
+                int n = codebook.n;
+                int k = 0;
+                long code = 0;
+                for(int len=1; len<codebook.tables.lengthCounts.length; len++){
+                    for(int j=0; j<codebook.tables.lengthCounts[len]; j++, k++, code++){
+                        codebook.tables.bytesToCode.put(Arrays.copyOfRange(codebook.tables.sortedSymbols, k*n, (k+1)*n), (code << (56-len)) | ((long)len << 56));
+                    }
+                    code <<= 1;
+                }
+                codebook.tables.packedTable = codebook.tables.new PackedCodeTable();
+                if(codebook.getId() != reader.readInt(file, 4)){
+                    throw new IllegalArgumentException(path + " is corrupt");
+                }
+                return codebook;
+            }
+            // The code table at map[index] (writeCodeTable format) with its decode structure only
+            static Codebook read(int n, byte[] map, int index){
+                Compressor tables = tablesFor(n);
+                tables.readCodeTable(map, index);
+                return new Codebook(tables);
+            }
+            // A compressor's freshly built canonical table with its encode structure only. The compressor's maps are
+            // taken over, so it must start its next table from new ones.
+            static Codebook share(Compressor compressor){
+                Compressor tables = tablesFor(compressor.n);
+                tables.lengthCounts = compressor.lengthCounts;
+                tables.sortedSymbols = compressor.sortedSymbols;
+                tables.bytesToCode = compressor.bytesToCode;
+                tables.packedTable = tables.new PackedCodeTable();
+                return new Codebook(tables);
+            }
+            // Whether every symbol counted in freq has a code
+            boolean covers(FreqMap freq){
+                for(byte[] bytes : freq.keySet()){
+                    if(tables.packedTable.get(tables.pack(bytes, 0, n)) == 0){
+                        return false;
+                    }
+                }
+                return true;
+            }
+            // Approximate heap bytes held by the tables
+            long footprint(){
+                long bytes = tables.sortedSymbols.length + 4L*tables.lengthCounts.length;
+                if(tables.reader != null){
+                    bytes += 8L*tables.reader.table.length;
+                }
+                PackedCodeTable packed = tables.packedTable;
+                if(packed != null){
+                    bytes += 8L*packed.codes.length*(packed.keys != null ? 2 : 1);
+                    bytes += n <= 2 ? 8L << (8*n) : 48L*tables.sortedSymbols.length/n;
+                }
+                return bytes;
+            }
+        }
+        // Built code tables of a long-running process, shared by the compressors that point tableCache at it. Encode
+        // entries are keyed by a fingerprint of the frequency table (frequencies are quantized to a quarter bit of
+        // code length, so similar payloads share a table), decode entries by the code table bytes of the header.
+        // The least recently used entries are evicted once the tables exceed maxBytes.
+        public static class TableCache {
+            private final long maxBytes;
+            private final LinkedHashMap<Object, Codebook> entries = new LinkedHashMap<>(16, 0.75f, true);
+            private long bytes;
+            private long hits;
+            private long misses;
+            private long evictions;
+
+            public TableCache(long maxBytes){
+                this.maxBytes = maxBytes;
+            }
+            // The entry for key if it passes check, else null; a failed check counts as a miss
+            synchronized Codebook get(Object key, Predicate<Codebook> check){
+                Codebook tables = entries.get(key);
+                if(tables != null && check.test(tables)){
+                    hits++;
+                    return tables;
+                }
+                misses++;
+                return null;
+            }
+            synchronized void put(Object key, Codebook tables){
+                Codebook previous = entries.put(key, tables);
+                if(previous != null){
+                    bytes -= previous.footprint();
+                }
+                bytes += tables.footprint();
+                Iterator<Codebook> eldest = entries.values().iterator();
+                while(bytes > maxBytes && entries.size() > 1){
+                    bytes -= eldest.next().footprint();
+                    eldest.remove();
+                    evictions++;
+                }
+            }
+            public synchronized long getHits(){ return hits; }
+            public synchronized long getMisses(){ return misses; }
+            public synchronized long getEvictions(){ return evictions; }
+            public synchronized int size(){ return entries.size(); }
+            public synchronized long getBytes(){ return bytes; }
+            @Override
+            public synchronized String toString(){
+                return String.format("%d tables, %d bytes, %d hits, %d misses, %d evictions", entries.size(), bytes, hits, misses, evictions);
+            }
+        }
+        private static long mix(long x){
+            x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+            x = (x ^ (x >>> 33)) * 0xC4CEB9FE1A85EC53L;
+            return x ^ (x >>> 33);
+        }
+        // Hash seeds for the open-addressing tables, distinct per table and per run
+        private static final AtomicLong SEEDS = new AtomicLong(System.nanoTime());
+        private static long nextSeed(){
+            return mix(SEEDS.incrementAndGet());
+        }
+        // Order-independent hash of n, maxCodeLength and every symbol with its count's code length in quarter bits
+        private long frequencyFingerprint(){
+            Set<byte[]> symbols = freq.keySet();
+            long total = 0;
+            for(byte[] bytes : symbols){
+                total += freq.get(bytes);
+            }
+            long hash = mix(n*31L+maxCodeLength)+symbols.size();
+            for(byte[] bytes : symbols){
+                long quarterBits = Math.round(4*Math.log((double)total/freq.get(bytes))/Math.log(2));
+                hash += mix(pack(bytes, 0, n)*0x9E3779B97F4A7C15L+quarterBits);
+            }
+            return hash;
+        }
+        // constructCanonicalCodes, unless tableCache has a table for the same frequencies
+        public void buildCanonicalTables(){
+            if(tableCache == null || n > 8){
+                constructCanonicalCodes();
+                return;
+            }
+            Long key = frequencyFingerprint();
+            Codebook cached = tableCache.get(key, tables -> tables.covers(freq));
+            if(cached != null){
+                cached.install(this);
+                return;
+            }
+            // a fresh map, as the current one is shared with the cache
+            bytesToCode = newBytesToCodeMap();
+            constructCanonicalCodes();
+            Codebook built = Codebook.share(this);
+            tableCache.put(key, built);
+            built.install(this);
+        }
+        // readCodeTable, unless tableCache has the same table already built
+        public int loadCodeTable(byte[] map, int index){
+            if(tableCache == null || n > 8){
+                return readCodeTable(map, index);
+            }
+            int maxLen = map[index] & 0xFF;
+            int k = 0;
+            for(int len=1; len<=maxLen; len++){
+                k += readInt(map, index+1+4*(len-1));
+            }
+            int end = index+1+4*maxLen+k*n;
+            ByteBuffer key = ByteBuffer.allocate(4+end-index).putInt(n).put(map, index, end-index);
+            key.flip();
+            Codebook tables = tableCache.get(key, t -> t.n == n);
+            if(tables == null){
+                tables = Codebook.read(n, map, index);
+                tableCache.put(key, tables);
+            }
+            tables.install(this);
+            return end;
+        }
+        // Trains a codebook for symbol width n on the given files, or the files directly inside given directories
+        public static Codebook trainCodebook(int n, List<String> samples) throws Exception {
+            if(n > 8){
+                throw new IllegalArgumentException("Codebooks need n <= 8");
+            }
+            Compressor tables = new Compressor(n);
+            for(String sample : samples){
+                File file = new File(sample);
+                File[] files = file.isDirectory() ? file.listFiles(File::isFile) : new File[]{file};
+                for(File f : files){
+                    tables.captureFreq(Files.readAllBytes(f.toPath()));
+                }
+            }
+            if(n <= 2){
+                for(long key=0; key < 1L << (8*n); key++){
+                    tables.freq.inc(key);
+                }
+            }
+            tables.constructCanonicalCodes();
+            tables.packedTable = tables.new PackedCodeTable();
+            tables.reader = tables.new CodeReader(tables.lengthCounts, tables.sortedSymbols);
+            return new Codebook(tables);
+        }
+
+        // Reader -> coders -> writer on their own threads, joined by bounded queues. A fixed pool of blocks circulates
+        // through the stages: the reader waits for a free block when all are in flight, which is the backpressure,
+        // and the writer puts coded blocks back in sequence before writing them and returning them to the pool.
+        static class Pipeline {
+            static class Block {
+                long sequence;
+                byte[] input = new byte[0];
+                int inputLength;
+                // decompressed length of the block, read from its frame when decompressing
+                int rawLength;
+                byte[] output = new byte[0];
+                int outputLength;
+            }
+            interface Stage {
+                // false from the reader once the input is exhausted
+                boolean run(Block block) throws Exception;
+            }
+
+            static void run(int coders, int depth, Stage reader, Stage coder, Stage writer) throws Exception {
+                BlockingQueue<Block> pool = new ArrayBlockingQueue<>(depth);
+                for(int i=0; i<depth; i++){
+                    pool.add(new Block());
+                }
+                BlockingQueue<Block> toCode = new ArrayBlockingQueue<>(depth+coders);
+                BlockingQueue<Block> toWrite = new ArrayBlockingQueue<>(depth+coders);
+                Block end = new Block();
+                ExecutorService executor = Executors.newFixedThreadPool(coders+2);
+                ExecutorCompletionService<Void> stages = new ExecutorCompletionService<>(executor);
+                try {
+                    stages.submit(() -> {
+                        for(long sequence=0; ; sequence++){
+                            Block block = pool.take();
+                            if(!reader.run(block)){
+                                for(int i=0; i<coders; i++){
+                                    toCode.put(end);
+                                }
+                                return null;
+                            }
+                            block.sequence = sequence;
+                            toCode.put(block);
+                        }
+                    });
+                    for(int i=0; i<coders; i++){
+                        stages.submit(() -> {
+                            for(Block block = toCode.take(); block != end; block = toCode.take()){
+                                coder.run(block);
+                                toWrite.put(block);
+                            }
+                            toWrite.put(end);
+                            return null;
+                        });
+                    }
+                    stages.submit(() -> {
+                        PriorityQueue<Block> pending = new PriorityQueue<>(Comparator.comparingLong(block -> block.sequence));
+                        long next = 0;
+                        for(int ended=0; ended < coders; ){
+                            Block block = toWrite.take();
+                            if(block == end){
+                                ended++;
+                                continue;
+                            }
+                            pending.add(block);
+                            while(!pending.isEmpty() && pending.peek().sequence == next){
+                                Block ready = pending.poll();
+                                writer.run(ready);
+                                next++;
+                                pool.put(ready);
+                            }
+                        }
+                        return null;
+                    });
+                    for(int i=0; i<coders+2; i++){
+                        // the first failure stops the other stages, which may be waiting on a queue it will never feed
+                        stages.take().get();
+                    }
+                }
+                finally {
+                    executor.shutdownNow();
+                }
+            }
+        }
+        private int pipelineDepth(int coders){
+            return maxInFlight > 0 ? maxInFlight : 2*coders+2;
+        }
+        // Compresses the rest of inputChannel through a Pipeline; adaptive blocks keep a single coder so they stay in order
+        private void compressBlocksPipelined(FileChannel inputChannel, FileChannel outputChannel) throws Exception {
+            int coders = adaptive ? 1 : Math.max(1, threads);
+            boolean pooled = packedEncoder && n <= 8 && !lz77 && !adaptive;
+            int capacity = pooled ? 8+maxCompressedSize(BUFFER_SIZE) : 0;
+            Pipeline.run(coders, pipelineDepth(coders), block -> {
+                if(block.input.length < BUFFER_SIZE){
+                    block.input = new byte[BUFFER_SIZE];
+                }
+                long start = System.nanoTime();
+                block.inputLength = readFully(inputChannel, ByteBuffer.wrap(block.input, 0, BUFFER_SIZE));
+                stats.ioNanos.add(System.nanoTime()-start);
+                return block.inputLength > 0;
+            }, block -> {
+                if(pooled){
+                    if(block.output.length < capacity){
+                        block.output = new byte[capacity];
+                    }
+                    long start = System.nanoTime();
+                    int size = interleaved ? encodeInterleaved(block.input, block.inputLength, block.output, 8)
+                            : encode(block.input, 0, block.inputLength, n, block.output, 8);
+                    stats.codingNanos.add(System.nanoTime()-start);
+                    writeInt(block.output, size, 0);
+                    writeInt(block.output, block.inputLength, 4);
+                    block.outputLength = 8+size;
+                }
+                else{
+                    block.output = compressBlock(Arrays.copyOf(block.input, block.inputLength));
+                    block.outputLength = block.output.length;
+                }
+                return true;
+            }, block -> {
+                writeBlock(outputChannel, block.output, block.outputLength);
+                return true;
+            });
+        }
+        // Decompresses the blocks after the header through a Pipeline; version 2 files stop at fileSize, before the index
+        private void decompressBlocksPipelined(FileChannel inputChannel, FileChannel outputChannel) throws Exception {
+            int coders = adaptive ? 1 : Math.max(1, threads);
+            ByteBuffer frame = ByteBuffer.allocate(8);
+            long[] read = {0};
+            Pipeline.run(coders, pipelineDepth(coders), block -> {
+                if(version >= 2 && read[0] >= fileSize){
+                    return false;
+                }
+                long start = System.nanoTime();
+                frame.clear();
+                int frameSize = readFully(inputChannel, frame);
+                if(frameSize < 8){
+                    if(version >= 2 || frameSize > 0){
+                        throw new IllegalStateException("Unexpected end of file");
+                    }
+                    return false;
+                }
+                int blockSize = frame.getInt(0);
+                block.rawLength = frame.getInt(4);
+                checkFrame(blockSize, block.rawLength, inputChannel.size()-inputChannel.position());
+                if(block.input.length < blockSize){
+                    block.input = new byte[blockSize];
+                }
+                if(readFully(inputChannel, ByteBuffer.wrap(block.input, 0, blockSize)) < blockSize){
+                    throw new IllegalStateException("Unexpected end of file");
+                }
+                stats.ioNanos.add(System.nanoTime()-start);
+                block.inputLength = blockSize;
+                read[0] += block.rawLength;
+                return true;
+            }, block -> {
+                if(block.output.length < block.rawLength){
+                    block.output = new byte[block.rawLength];
+                }
+                decompress(block.input, block.inputLength, block.output, 0, block.rawLength);
+                block.outputLength = block.rawLength;
+                return true;
+            }, block -> {
+                long start = System.nanoTime();
+                ByteBuffer output = ByteBuffer.wrap(block.output, 0, block.outputLength);
+                while(output.hasRemaining()){
+                    outputChannel.write(output);
+                }
+                stats.ioNanos.add(System.nanoTime()-start);
+                stats.blocks++;
+                return true;
+            });
+        }
+        // Writes decompressed bytes [start, start+length) to decompressedFile, decoding only the blocks that cover them.
+        // Every block but the last holds the same number of bytes, so with an index the first block is start/blockSize
+        // and only the entries of the covering blocks are read; without one the frames before the range are walked.
+        public void extractRange(long start, long length) throws Exception {
+            if(start < 0 || length < 0){
+                throw new IllegalArgumentException("Range start and length must not be negative");
+            }
+            try (FileInputStream fis = new FileInputStream(compressedFile);
+                 FileChannel inputChannel = fis.getChannel();
+                 FileOutputStream fos = new FileOutputStream(decompressedFile);
+                 FileChannel outputChannel = fos.getChannel()) {
+                readHeader(inputChannel);
+                long end = start+Math.min(length, Long.MAX_VALUE-start);
+                if(version >= 2){
+                    end = Math.min(end, fileSize);
+                }
+                // the covering blocks, the decompressed offset of the first, and the entry of the last block before
+                // it that carried an adaptive table
+                List<long[]> blocks = new ArrayList<>();
+                long firstStart = 0;
+                long[] tableEntry = null;
+                ByteBuffer marker = ByteBuffer.allocate(1);
+                if((flags & FLAG_BLOCK_INDEX) != 0){
+                    long[] trailer = readIndexTrailer(inputChannel);
+                    int count = (int)trailer[0];
+                    long blockSize = count > 1 ? readIndexEntry(inputChannel, trailer[1], 0)[2] : 0;
+                    if(count > 1 && blockSize == 0){
+                        throw new IllegalStateException("Corrupt block index");
+                    }
+                    int first = count > 1 ? (int)Math.min(start/blockSize, count-1) : 0;
+                    firstStart = first*blockSize;
+                    long blockStart = firstStart;
+                    for(int i=first; i<count && start < end && blockStart < end; i++){
+                        long[] entry = readIndexEntry(inputChannel, trailer[1], i);
+                        if(i < count-1 && entry[2] != blockSize){
+                            throw new IllegalStateException("Corrupt block index");
+                        }
+                        blocks.add(entry);
+                        blockStart += entry[2];
+                    }
+                    for(int i=first-1; adaptive && !blocks.isEmpty() && i>=0; i--){
+                        long[] entry = readIndexEntry(inputChannel, trailer[1], i);
+                        marker.clear();
+                        readFully(inputChannel, marker, entry[0]+8);
+                        if(marker.get(0) != 0){
+                            tableEntry = entry;
+                            break;
+                        }
+                    }
+                }
+                else{
+                    ByteBuffer sizeBuffer = ByteBuffer.allocate(8);
+                    long position = inputChannel.position();
+                    long blockStart = 0;
+                    while((version < 2 || blockStart < fileSize) && start < end && blockStart < end && position+8 <= inputChannel.size()){
+                        sizeBuffer.clear();
+                        readFully(inputChannel, sizeBuffer, position);
+                        sizeBuffer.flip();
+                        long[] entry = {position, sizeBuffer.getInt(), sizeBuffer.getInt()};
+                        checkFrame((int)entry[1], (int)entry[2], inputChannel.size()-position-8);
+                        if(blockStart+entry[2] > start){
+                            if(blocks.isEmpty()){
+                                firstStart = blockStart;
+                            }
+                            blocks.add(entry);
+                        }
+                        else if(adaptive && entry[1] > 0){
+                            marker.clear();
+                            readFully(inputChannel, marker, position+8);
+                            if(marker.get(0) != 0){
+                                tableEntry = entry;
+                            }
+                        }
+                        position += 8+entry[1];
+                        blockStart += entry[2];
+                    }
+                }
+                if(tableEntry != null){
+                    // load the table in force at the first block
+                    ByteBuffer table = ByteBuffer.allocate((int)tableEntry[1]);
+                    readFully(inputChannel, table, tableEntry[0]+8);
+                    readCodeTable(table.array(), 1);
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(0);
+                byte[] block = new byte[0];
+                long blockStart = firstStart;
+                for(long[] entry : blocks){
+                    if(buffer.capacity() < entry[1]){
+                        buffer = ByteBuffer.allocate((int)entry[1]);
+                    }
+                    if(block.length < entry[2]){
+                        block = new byte[(int)entry[2]];
+                    }
+                    buffer.clear().limit((int)entry[1]);
+                    readFully(inputChannel, buffer, entry[0]+8);
+                    decompress(buffer.array(), (int)entry[1], block, 0, (int)entry[2]);
+                    int from = (int)Math.max(0, start-blockStart);
+                    int to = (int)(Math.min(end, blockStart+entry[2])-blockStart);
+                    ByteBuffer range = ByteBuffer.wrap(block, from, to-from);
+                    while(range.hasRemaining()){
+                        outputChannel.write(range);
+                    }
+                    blockStart += entry[2];
+                }
+            }
+        }
+        // Rejects frame lengths no writer produces before they size a buffer
+        private static void checkFrame(int compressedLength, int length){
+            if(compressedLength < 0 || compressedLength > MAX_FRAME_SIZE || length < 0 || length > MAX_BLOCK_SIZE){
+                throw new IllegalStateException("Corrupt block frame");
+            }
+        }
+        // Same, for a frame whose payload must fit in the `remaining` bytes left in the file
+        private static void checkFrame(int compressedLength, int length, long remaining){
+            checkFrame(compressedLength, length);
+            if(compressedLength > remaining){
+                throw new IllegalStateException("Corrupt block frame");
+            }
+        }
+        private static int readFully(FileChannel channel, ByteBuffer buffer) throws Exception {
+            int total = 0;
+            while(buffer.hasRemaining()){
+                int read = channel.read(buffer);
+                if(read < 0){
+                    break;
+                }
+                total += read;
+            }
+            return total;
+        }
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws Exception {
+            while(buffer.hasRemaining()){
+                int read = channel.read(buffer, position);
+                if(read < 0){
+                    throw new IllegalStateException("Unexpected end of file");
+                }
+                position += read;
+            }
+        }
+        // Blocks are encoded concurrently against the shared, read-only bytesToCode and written in input order
+        private void compressBlocksParallel(FileChannel inputChannel, FileChannel outputChannel) throws Exception {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                int limit = maxInFlight > 0 ? maxInFlight : 2*threads;
+                ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                long start = System.nanoTime();
+                while (readFully(inputChannel, buffer) > 0) {
+                    stats.ioNanos.add(System.nanoTime()-start);
+                    buffer.flip();
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    buffer.clear();
+                    if (inFlight.size() >= limit) {
+                        writeBlock(outputChannel, inFlight.remove().get());
+                    }
+                    inFlight.add(executor.submit(() -> compressBlock(bytes)));
+                    start = System.nanoTime();
+                }
+                while (!inFlight.isEmpty()) {
+                    writeBlock(outputChannel, inFlight.remove().get());
+                }
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+
+        // Encodes each mapped input block directly into a mapped output window, then trims the output file
+        public void compressFileMapped() throws Exception {
+            blockIndex = new ArrayList<>();
+            try (FileChannel inputChannel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+                 FileChannel outputChannel = FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE,
+                         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                Phase phase = new Phase("header");
+                byte[] header = writeMap();
+                outputChannel.write(ByteBuffer.wrap(header));
+                stats.headerSize = header.length;
+                stats.headerNanos = phase.end();
+                long outputPosition = header.length;
+                MappedByteBuffer output = null;
+                long outputStart = 0;
+                int maxBlockSize = 8+maxCompressedSize(BUFFER_SIZE);
+                long size = inputChannel.size();
+                long window = MAP_WINDOW/BUFFER_SIZE*BUFFER_SIZE;
+                for(long start=0; start<size; start+=window){
+                    int windowSize = (int)Math.min(window, size-start);
+                    MappedByteBuffer input = inputChannel.map(FileChannel.MapMode.READ_ONLY, start, windowSize);
+                    for(int i=0; i<windowSize; i+=BUFFER_SIZE){
+                        int length = Math.min(BUFFER_SIZE, windowSize-i);
+                        if(output == null || outputPosition+maxBlockSize > outputStart+output.capacity()){
+                            outputStart = outputPosition;
+                            output = outputChannel.map(FileChannel.MapMode.READ_WRITE, outputStart, Math.max(OUTPUT_MAP_WINDOW, maxBlockSize));
+                        }
+                        int at = (int)(outputPosition-outputStart);
+                        long encodeStart = System.nanoTime();
+                        int compressedSize = encode(input, i, length, output, at+8);
+                        stats.codingNanos.add(System.nanoTime()-encodeStart);
+                        output.putInt(at, compressedSize);
+                        output.putInt(at+4, length);
+                        blockIndex.add(new long[]{outputPosition, compressedSize, length});
+                        outputPosition += 8+compressedSize;
+                        stats.blocks++;
+                        stats.symbols += (length+n-1)/n;
+                    }
+                }
+                outputChannel.truncate(outputPosition);
+                outputChannel.position(outputPosition);
+                if(appendsBlockIndex()){
+                    writeBlockIndex(outputChannel);
+                }
+            }
+        }
+        // Blocks are read from mapped input windows and decoded into mapped output windows
+        public void decompressFileMapped() throws Exception {
+            try (FileChannel inputChannel = FileChannel.open(Paths.get(compressedFile), StandardOpenOption.READ);
+                 FileChannel outputChannel = FileChannel.open(Paths.get(decompressedFile), StandardOpenOption.CREATE,
+                         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                readHeader(inputChannel);
+                long position = inputChannel.position();
+                long size = inputChannel.size();
+                MappedByteBuffer input = null;
+                long inputStart = 0;
+                MappedByteBuffer output = null;
+                long outputStart = 0;
+                byte[] compressed = new byte[0];
+                byte[] decompressed = new byte[0];
+                long written = 0;
+                while((version < 2 || written < fileSize) && position+8 <= size){
+                    if(input == null || position+8 > inputStart+input.capacity()){
+                        inputStart = position;
+                        input = inputChannel.map(FileChannel.MapMode.READ_ONLY, inputStart, Math.min(MAP_WINDOW, size-inputStart));
+                    }
+                    int blockSize = input.getInt((int)(position-inputStart));
+                    int finalSize = input.getInt((int)(position-inputStart)+4);
+                    checkFrame(blockSize, finalSize, size-position-8);
+                    if(position+8+blockSize > inputStart+input.capacity()){
+                        inputStart = position;
+                        input = inputChannel.map(FileChannel.MapMode.READ_ONLY, inputStart, Math.min(MAP_WINDOW, size-inputStart));
+                    }
+                    if(output == null || written+finalSize > outputStart+output.capacity()){
+                        outputStart = written;
+                        output = outputChannel.map(FileChannel.MapMode.READ_WRITE, outputStart, Math.max(OUTPUT_MAP_WINDOW, finalSize));
+                    }
+                    if(compressed.length < blockSize){
+                        compressed = new byte[blockSize];
+                    }
+                    if(decompressed.length < finalSize){
+                        decompressed = new byte[finalSize];
+                    }
+                    input.get((int)(position-inputStart)+8, compressed, 0, blockSize);
+                    decompress(compressed, blockSize, decompressed, 0, finalSize);
+                    output.put((int)(written-outputStart), decompressed, 0, finalSize);
+                    position += 8+blockSize;
+                    written += finalSize;
+                    stats.blocks++;
+                }
+                outputChannel.truncate(written);
+            }
+        }
+
+        public CompressionStats compressFile() throws Exception {
+            stats = new CompressionStats("compress");
+            OperationEvent event = new OperationEvent();
+            event.begin();
+            long start = System.nanoTime();
+            // only version 2 headers can carry the flags, and interleaved streams are written by the packed encoder
+            lz77 &= canonical;
+            interleaved &= canonical && packedEncoder && n <= 8 && !lz77;
+            adaptive &= canonical && packedEncoder && n <= 8 && !lz77;
+            escapeTables = null;
+            // the index of a previous compressFile on this instance
+            blockIndex = new ArrayList<>();
+            if(codebook != null){
+                if(codebook.n != n || !canonical || lz77 || adaptive){
+                    throw new IllegalArgumentException("A codebook needs canonical, non-LZ77, non-adaptive coding with n=" + codebook.n);
+                }
+                // one table-driven pass over the input
+                fileSize = new File(inputFile).length();
+                codebook.install(this);
+            }
+            else if(adaptive){
+                // tables come with the blocks, so there is no frequency pass and the header table is empty
+                fileSize = new File(inputFile).length();
+                lengthCounts = new int[1];
+                sortedSymbols = new byte[0];
+                blockTable = null;
+                blockTables = 0;
+            }
+            else if(lz77){
+                // LZ77 blocks carry their own tables, so there is no frequency pass and the header table is empty
+                fileSize = new File(inputFile).length();
+                lengthCounts = new int[1];
+                sortedSymbols = new byte[0];
+                lz = new Lz77(lzLevel);
+            }
+            else{
+                if(topK != 0 && interleaved){
+                    // escaped blocks are written by encodeEscaped and read by readEscaped, neither of which interleaves
+                    throw new IllegalArgumentException("Escaped symbols (topK) cannot be written to interleaved blocks");
+                }
+                if(topK != 0 && canonical && packedEncoder && n > 2 && n <= 8){
+                    // counts are only needed for the topK kept symbols, or the at most TOP_K_AUTO_LIMIT an auto K keeps
+                    freq = new SummaryFreqMap((int)Math.min(4L*(topK == TOP_K_AUTO ? TOP_K_AUTO_LIMIT : topK), 1 << 28));
+                }
+                Phase phase = new Phase("freq");
+                captureFileFreq();
+                stats.freqNanos = phase.end();
+                phase = new Phase("tree");
+                if(topK != 0 && canonical && packedEncoder && n <= 8){
+                    selectTopK();
+                }
+                if(canonical || maxCodeLength > 0){
+                    buildCanonicalTables();
+                }
+                else{
+                    constructHuffmanTree();
+                    constructCodeMap(root, 0, 0);
+                }
+                if(!canonical){
+                    constructBytesMap();
+                }
+                stats.treeNanos = phase.end();
+                recordCodeStats();
+            }
+            stats.bytesIn = fileSize;
+            if(memoryMapped && packedEncoder && n <= 8 && !interleaved && !lz77 && !adaptive && escapeTables == null){
+                compressFileMapped();
+            }
+            else{
+                compressFileChannels();
+            }
+            stats.bytesOut = new File(outputFile).length();
+            finishStats(start, event);
+            return stats;
+        }
+        private void compressFileChannels() throws Exception {
+            try (FileInputStream fis = new FileInputStream(inputFile);
+                 FileChannel inputChannel = fis.getChannel();
+                 FileOutputStream fos = new FileOutputStream(outputFile);
+                 FileChannel outputChannel = fos.getChannel()) {
+
+                Phase phase = new Phase("header");
+                ByteBuffer mapBuffer = ByteBuffer.wrap(writeMap());
+                stats.headerSize = mapBuffer.remaining();
+                outputChannel.write(mapBuffer);
+                stats.headerNanos = phase.end();
+
+                if(pipelined){
+                    compressBlocksPipelined(inputChannel, outputChannel);
+                }
+                // adaptive blocks depend on the table of the block before, so they are encoded in order
+                else if(threads > 1 && !adaptive){
+                    compressBlocksParallel(inputChannel, outputChannel);
+                }
+                else{
+                    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+                    long start = System.nanoTime();
+                    int bytesRead = readFully(inputChannel, buffer);
+                    stats.ioNanos.add(System.nanoTime()-start);
+                    while (bytesRead > 0) {
+                        buffer.flip();
+                        byte[] bytes = new byte[buffer.remaining()];
+                        buffer.get(bytes);
+                        writeBlock(outputChannel, compressBlock(bytes));
+                        buffer.clear();
+                        start = System.nanoTime();
+                        bytesRead = readFully(inputChannel, buffer);
+                        stats.ioNanos.add(System.nanoTime()-start);
+                    }
+                }
+                if(appendsBlockIndex()){
+                    writeBlockIndex(outputChannel);
+                }
+//                int extraBytes = (int)(outputChannel.size() % n);
+//                // delete the last extraBytes from the file
+//                outputChannel.truncate(outputChannel.size() - extraBytes);
+
+            }
+        }
+
+        // Reads the format version and the code table, leaving the channel at the first block
+        public void readHeader(FileChannel inputChannel) throws Exception {
+            Phase phase = new Phase("header");
+            ByteBuffer mapSizeBuffer = ByteBuffer.allocate(4);
+            readFully(inputChannel, mapSizeBuffer);
+            mapSizeBuffer.flip();
+            int mapSize = mapSizeBuffer.getInt();
+            version = 1;
+            if((mapSize & 0xFFFFFF00) == FORMAT_MAGIC){
+                version = mapSize & 0xFF;
+                if(version > FORMAT_VERSION){
+                    throw new IllegalStateException("Unsupported format version " + version);
+                }
+                mapSizeBuffer.clear();
+                readFully(inputChannel, mapSizeBuffer);
+                mapSizeBuffer.flip();
+                mapSize = mapSizeBuffer.getInt();
+            }
+            ByteBuffer mapBuffer = ByteBuffer.allocate(mapSize-4);
+            readFully(inputChannel, mapBuffer);
+            readMap(mapBuffer.array());
+            if(lengthCounts != null){
+                long bits = 0;
+                for(int len=1; len<lengthCounts.length; len++){
+                    stats.distinctSymbols += lengthCounts[len];
+                    bits += (long)len*lengthCounts[len];
+                }
+                stats.maxCodeLength = lengthCounts.length-1;
+                stats.averageCodeLength = stats.distinctSymbols == 0 ? 0 : (double)bits/stats.distinctSymbols;
+            }
+            stats.headerSize = inputChannel.position();
+            stats.headerNanos = phase.end();
+        }
+        public CompressionStats decompressFile() throws Exception {
+            stats = new CompressionStats("decompress");
+            OperationEvent event = new OperationEvent();
+            event.begin();
+            long start = System.nanoTime();
+            if(memoryMapped){
+                decompressFileMapped();
+            }
+            else{
+                decompressFileChannels();
+            }
+            stats.bytesIn = new File(compressedFile).length();
+            stats.bytesOut = new File(decompressedFile).length();
+            stats.symbols = (stats.bytesOut+n-1)/n;
+            finishStats(start, event);
+            return stats;
+        }
+        private void decompressFileChannels() throws Exception {
+            try (FileInputStream fis = new FileInputStream(compressedFile);
+                 FileChannel inputChannel = fis.getChannel();
+                 FileOutputStream fos = new FileOutputStream(decompressedFile);
+                 FileChannel outputChannel = fos.getChannel()) {
+                readHeader(inputChannel);
+                if(pipelined){
+                    decompressBlocksPipelined(inputChannel, outputChannel);
+                }
+                else if(threads > 1 && (flags & FLAG_BLOCK_INDEX) != 0 && !adaptive){
+                    decompressBlocksParallel(inputChannel, outputChannel);
+                }
+                else{
+                    // Version 2 files stop after fileSize bytes, before the block index. The block buffers
+                    // only grow, so once they fit the largest block nothing is allocated per block.
+                    ByteBuffer sizeBuffer = ByteBuffer.allocate(8);
+                    ByteBuffer buffer = ByteBuffer.allocate(0);
+                    ByteBuffer decompressedBuffer = ByteBuffer.allocate(0);
+                    long written = 0;
+                    while(version < 2 || written < fileSize){
+                        long start = System.nanoTime();
+                        sizeBuffer.clear();
+                        if(readFully(inputChannel, sizeBuffer) < 8) break;
+                        sizeBuffer.flip();
+                        int blockSize = sizeBuffer.getInt();
+                        int finalSize = sizeBuffer.getInt();
+                        checkFrame(blockSize, finalSize, inputChannel.size()-inputChannel.position());
+                        if(buffer.capacity() < blockSize){
+                            buffer = ByteBuffer.allocate(blockSize);
+                        }
+                        if(decompressedBuffer.capacity() < finalSize){
+                            decompressedBuffer = ByteBuffer.allocate(finalSize);
+                        }
+                        buffer.clear().limit(blockSize);
+                        readFully(inputChannel, buffer);
+                        stats.ioNanos.add(System.nanoTime()-start);
+                        decompress(buffer.array(), blockSize, decompressedBuffer.array(), 0, finalSize);
+                        start = System.nanoTime();
+                        decompressedBuffer.clear().limit(finalSize);
+                        while(decompressedBuffer.hasRemaining()){
+                            outputChannel.write(decompressedBuffer);
+                        }
+                        stats.ioNanos.add(System.nanoTime()-start);
+                        written += finalSize;
+                        stats.blocks++;
+                    }
+                }
+            }
+        }
+        // Decodes the blocks listed in the index concurrently and writes each one at its own output offset
+        private void decompressBlocksParallel(FileChannel inputChannel, FileChannel outputChannel) throws Exception {
+            readBlockIndex(inputChannel);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                int limit = maxInFlight > 0 ? maxInFlight : 2*threads;
+                ArrayDeque<Future<?>> inFlight = new ArrayDeque<>();
+                long outputOffset = 0;
+                for(long[] entry : blockIndex){
+                    long position = outputOffset;
+                    if (inFlight.size() >= limit) {
+                        inFlight.remove().get();
+                    }
+                    inFlight.add(executor.submit(() -> {
+                        long start = System.nanoTime();
+                        ByteBuffer buffer = ByteBuffer.allocate((int)entry[1]);
+                        readFully(inputChannel, buffer, entry[0]+8);
+                        stats.ioNanos.add(System.nanoTime()-start);
+                        ByteBuffer decompressed = ByteBuffer.wrap(decompress(buffer.array(), (int)entry[2]));
+                        start = System.nanoTime();
+                        long at = position;
+                        while(decompressed.hasRemaining()){
+                            at += outputChannel.write(decompressed, at);
+                        }
+                        stats.ioNanos.add(System.nanoTime()-start);
+                        return null;
+                    }));
+                    outputOffset += entry[2];
+                    stats.blocks++;
+                }
+                while (!inFlight.isEmpty()) {
+                    inFlight.remove().get();
+                }
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+        // What one compressFile/decompressFile call did and where its time went. Coding and I/O time are summed
+        // over worker threads, so with threads > 1 they can exceed the wall-clock total.
+        public static class CompressionStats {
+            public final String operation;
+            public long bytesIn;
+            public long bytesOut;
+            public long blocks;
+            public long symbols;
+            public long distinctSymbols;
+            public int maxCodeLength;
+            // frequency-weighted when compressing; decompression has no frequencies, so it averages over the table
+            public double averageCodeLength;
+            public long headerSize;
+            public long freqNanos;
+            public long treeNanos;
+            public long headerNanos;
+            public final LongAdder codingNanos = new LongAdder();
+            public final LongAdder ioNanos = new LongAdder();
+            public long totalNanos;
+
+            CompressionStats(String operation){
+                this.operation = operation;
+            }
+            @Override
+            public String toString(){
+                return String.format("%s: %d -> %d bytes, %d blocks, %d symbols (%d distinct), code length max %d avg %.3f, header %d bytes%n"
+                                + "  freq %.1f ms, tree %.1f ms, header %.1f ms, coding %.1f ms, io %.1f ms, total %.1f ms",
+                        operation, bytesIn, bytesOut, blocks, symbols, distinctSymbols, maxCodeLength, averageCodeLength, headerSize,
+                        freqNanos/1e6, treeNanos/1e6, headerNanos/1e6, codingNanos.sum()/1e6, ioNanos.sum()/1e6, totalNanos/1e6);
+            }
+        }
+        // Totals over every call in this JVM, registered as "Compressor:type=Stats"
+        public interface CompressorMXBean {
+            long getOperations();
+            long getBytesIn();
+            long getBytesOut();
+            long getBlocks();
+            long getSymbols();
+            long getFreqNanos();
+            long getTreeNanos();
+            long getHeaderNanos();
+            long getCodingNanos();
+            long getIoNanos();
+            long getTotalNanos();
+            long getLastHeaderSize();
+            int getLastMaxCodeLength();
+            double getLastAverageCodeLength();
+        }
+        static class CompressorStats implements CompressorMXBean {
+            final AtomicLong operations = new AtomicLong();
+            final AtomicLong bytesIn = new AtomicLong();
+            final AtomicLong bytesOut = new AtomicLong();
+            final AtomicLong blocks = new AtomicLong();
+            final AtomicLong symbols = new AtomicLong();
+            final AtomicLong freqNanos = new AtomicLong();
+            final AtomicLong treeNanos = new AtomicLong();
+            final AtomicLong headerNanos = new AtomicLong();
+            final AtomicLong codingNanos = new AtomicLong();
+            final AtomicLong ioNanos = new AtomicLong();
+            final AtomicLong totalNanos = new AtomicLong();
+            volatile CompressionStats last = new CompressionStats("none");
+
+            void record(CompressionStats stats){
+                operations.incrementAndGet();
+                bytesIn.addAndGet(stats.bytesIn);
+                bytesOut.addAndGet(stats.bytesOut);
+                blocks.addAndGet(stats.blocks);
+                symbols.addAndGet(stats.symbols);
+                freqNanos.addAndGet(stats.freqNanos);
+                treeNanos.addAndGet(stats.treeNanos);
+                headerNanos.addAndGet(stats.headerNanos);
+                codingNanos.addAndGet(stats.codingNanos.sum());
+                ioNanos.addAndGet(stats.ioNanos.sum());
+                totalNanos.addAndGet(stats.totalNanos);
+                last = stats;
+            }
+            public long getOperations(){ return operations.get(); }
+            public long getBytesIn(){ return bytesIn.get(); }
+            public long getBytesOut(){ return bytesOut.get(); }
+            public long getBlocks(){ return blocks.get(); }
+            public long getSymbols(){ return symbols.get(); }
+            public long getFreqNanos(){ return freqNanos.get(); }
+            public long getTreeNanos(){ return treeNanos.get(); }
+            public long getHeaderNanos(){ return headerNanos.get(); }
+            public long getCodingNanos(){ return codingNanos.get(); }
+            public long getIoNanos(){ return ioNanos.get(); }
+            public long getTotalNanos(){ return totalNanos.get(); }
+            public long getLastHeaderSize(){ return last.headerSize; }
+            public int getLastMaxCodeLength(){ return last.maxCodeLength; }
+            public double getLastAverageCodeLength(){ return last.averageCodeLength; }
+        }
+        static final CompressorStats STATS = registerStats();
+        private static CompressorStats registerStats(){
+            CompressorStats stats = new CompressorStats();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(stats, new ObjectName("Compressor:type=Stats"));
+            }
+            catch (Exception e) {
+                // another copy of the class already registered one; this instance still collects
+            }
+            return stats;
+        }
+        // JFR events: one per phase of a call, and a summary per call
+        @Name("huffman.Phase")
+        @Label("Huffman Phase")
+        @Category("Huffman")
+        static class PhaseEvent extends Event {
+            @Label("Operation")
+            String operation;
+            @Label("Phase")
+            String phase;
+        }
+        @Name("huffman.Operation")
+        @Label("Huffman Operation")
+        @Category("Huffman")
+        static class OperationEvent extends Event {
+            @Label("Operation")
+            String operation;
+            @Label("Bytes In")
+            @DataAmount
+            long bytesIn;
+            @Label("Bytes Out")
+            @DataAmount
+            long bytesOut;
+            @Label("Blocks")
+            long blocks;
+            @Label("Symbols")
+            long symbols;
+            @Label("Max Code Length")
+            int maxCodeLength;
+            @Label("Header Size")
+            @DataAmount
+            long headerSize;
+            @Label("Coding Time")
+            @Timespan
+            long codingNanos;
+            @Label("I/O Time")
+            @Timespan
+            long ioNanos;
+        }
+        // Times one phase into `stats` and as a PhaseEvent
+        private class Phase {
+            final PhaseEvent event = new PhaseEvent();
+            final long start = System.nanoTime();
+            Phase(String name){
+                event.operation = stats.operation;
+                event.phase = name;
+                event.begin();
+            }
+            long end(){
+                event.commit();
+                return System.nanoTime()-start;
+            }
+        }
+        // Codes are never longer for a more frequent symbol, so the counts in descending order paired with the code
+        // lengths in ascending order give the table's coded size without a lookup per symbol
+        private void recordCodeStats(){
+            int[] codesPerLength = lengthCounts;
+            if(!canonical && maxCodeLength == 0){
+                // the legacy tree keeps no length counts; its codes carry their lengths
+                codesPerLength = new int[57];
+                for(long code : codeToBytes.keySet()){
+                    codesPerLength[(int)(code >>> 56)]++;
+                }
+            }
+            long[] counts = freq.counts();
+            long max = 0;
+            for(long count : counts){
+                max = Math.max(max, count);
+            }
+            radixSort(counts, 0, counts.length, 64-Long.numberOfLeadingZeros(max));
+            long total = 0;
+            long bits = 0;
+            long distinct = 0;
+            int maxLen = 0;
+            int next = counts.length;
+            for(int len=1; len<codesPerLength.length; len++){
+                for(int i=0; i<codesPerLength[len]; i++){
+                    long count = next > 0 ? counts[--next] : 0;
+                    total += count;
+                    bits += count*len;
+                    distinct++;
+                    maxLen = len;
+                }
+            }
+            stats.distinctSymbols = distinct;
+            stats.maxCodeLength = maxLen;
+            stats.averageCodeLength = total == 0 ? 0 : (double)bits/total;
+        }
+        private void finishStats(long start, OperationEvent event){
+            stats.totalNanos = System.nanoTime()-start;
+            STATS.record(stats);
+            event.operation = stats.operation;
+            event.bytesIn = stats.bytesIn;
+            event.bytesOut = stats.bytesOut;
+            event.blocks = stats.blocks;
+            event.symbols = stats.symbols;
+            event.maxCodeLength = stats.maxCodeLength;
+            event.headerSize = stats.headerSize;
+            event.codingNanos = stats.codingNanos.sum();
+            event.ioNanos = stats.ioNanos.sum();
+            event.commit();
+        }
+
+        // Stream format: magic, n, then per block its own code table followed by a framed block; a table size of -1 ends the stream
+        private static final int STREAM_MAGIC = 0xFF485300 | FORMAT_VERSION;
+        private static final int END_OF_STREAM = -1;
+
+        // Compresses incrementally, holding at most one block; every block carries its own code table
+        public static class HuffmanOutputStream extends OutputStream {
+            private final DataOutputStream out;
+            private final int n;
+            private final byte[] buffer;
+            private int count;
+            private boolean closed;
+            int maxCodeLength = 0;
+            // shared with other streams to skip rebuilding the tables of recurring block contents
+            public TableCache tableCache;
+
+            public HuffmanOutputStream(OutputStream out, int n) throws IOException {
+                this(out, n, BUFFER_SIZE_LIMIT/n*n);
+            }
+            public HuffmanOutputStream(OutputStream out, int n, int blockSize) throws IOException {
+                if(blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE){
+                    throw new IllegalArgumentException("Block size must be between " + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE + " bytes");
+                }
+                this.out = new DataOutputStream(out);
+                this.n = n;
+                this.buffer = new byte[blockSize/n*n];
+                this.out.writeInt(STREAM_MAGIC);
+                this.out.writeInt(n);
+            }
+            @Override
+            public void write(int b) throws IOException {
+                buffer[count++] = (byte)b;
+                if(count == buffer.length){
+                    writeBlock();
+                }
+            }
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while(len > 0){
+                    int copy = Math.min(len, buffer.length-count);
+                    System.arraycopy(b, off, buffer, count, copy);
+                    count += copy;
+                    off += copy;
+                    len -= copy;
+                    if(count == buffer.length){
+                        writeBlock();
+                    }
+                }
+            }
+            private void writeBlock() throws IOException {
+                if(count == 0){
+                    return;
+                }
+                byte[] block = Arrays.copyOf(buffer, count);
+                Compressor compressor = new Compressor(n);
+                compressor.maxCodeLength = maxCodeLength;
+                compressor.tableCache = tableCache;
+                compressor.captureFreq(block);
+                compressor.buildCanonicalTables();
+                byte[] table = new byte[compressor.codeTableSize()];
+                compressor.writeCodeTable(table, 0);
+                out.writeInt(table.length);
+                out.write(table);
+                out.write(compressor.compressBlock(block));
+                count = 0;
+            }
+            // Emits the pending bytes as a (short) block so the receiver can decode everything written so far
+            @Override
+            public void flush() throws IOException {
+                writeBlock();
+                out.flush();
+            }
+            @Override
+            public void close() throws IOException {
+                if(closed){
+                    return;
+                }
+                closed = true;
+                writeBlock();
+                out.writeInt(END_OF_STREAM);
+                out.close();
+            }
+        }
+        public static class HuffmanInputStream extends InputStream {
+            private final DataInputStream in;
+            private final int n;
+            private byte[] buffer = new byte[0];
+            private byte[] compressed = new byte[0];
+            private int position;
+            private int limit;
+            private boolean finished;
+            public TableCache tableCache;
+
+            public HuffmanInputStream(InputStream in) throws IOException {
+                this.in = new DataInputStream(in);
+                if(this.in.readInt() != STREAM_MAGIC){
+                    throw new IOException("Not a Huffman stream");
+                }
+                this.n = this.in.readInt();
+            }
+            private boolean nextBlock() throws IOException {
+                int tableSize = in.readInt();
+                if(tableSize == END_OF_STREAM){
+                    finished = true;
+                    return false;
+                }
+                byte[] table = new byte[tableSize];
+                in.readFully(table);
+                Compressor compressor = new Compressor(n);
+                compressor.tableCache = tableCache;
+                compressor.loadCodeTable(table, 0);
+                int blockSize = in.readInt();
+                int finalSize = in.readInt();
+                checkFrame(blockSize, finalSize);
+                if(compressed.length < blockSize){
+                    compressed = new byte[blockSize];
+                }
+                if(buffer.length < finalSize){
+                    buffer = new byte[finalSize];
+                }
+                in.readFully(compressed, 0, blockSize);
+                compressor.decompress(compressed, blockSize, buffer, 0, finalSize);
+                position = 0;
+                limit = finalSize;
+                return true;
+            }
+            @Override
+            public int read() throws IOException {
+                while(position == limit){
+                    if(finished || !nextBlock()){
+                        return -1;
+                    }
+                }
+                return buffer[position++] & 0xFF;
+            }
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if(len == 0){
+                    return 0;
+                }
+                while(position == limit){
+                    if(finished || !nextBlock()){
+                        return -1;
+                    }
+                }
+                int copy = Math.min(len, limit-position);
+                System.arraycopy(buffer, position, b, off, copy);
+                position += copy;
+                return copy;
+            }
+            @Override
+            public int available(){
+                return limit-position;
+            }
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        }
+
+        // A byte count with an optional k or m suffix, as in -block=4m
+        static int parseSize(String size) {
+            String digits = size.toLowerCase();
+            int shift = digits.endsWith("k") ? 10 : digits.endsWith("m") ? 20 : 0;
+            if (shift > 0) {
+                digits = digits.substring(0, digits.length() - 1);
+            }
+            return Math.toIntExact(Long.parseLong(digits) << shift);
+        }
+        // The codebook named by -codebook=<file>, or null
+        private static Codebook codebookOption(Map<String, String> options) {
+            if (!options.containsKey("codebook")) {
+                return null;
+            }
+            try {
+                return Codebook.load(options.get("codebook"));
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+                System.exit(1);
+                return null;
+            }
+        }
+        public static void main(String[] args) {
+            // Options start with '-' and may appear anywhere, e.g. "c input.txt 2 -legacy"
+            List<String> positional = new ArrayList<>();
+            Map<String, String> options = new HashMap<>();
+            for (String arg : args) {
+                if (arg.startsWith("-")) {
+                    int eq = arg.indexOf('=');
+                    options.put(eq < 0 ? arg.substring(1) : arg.substring(1, eq), eq < 0 ? "" : arg.substring(eq + 1));
+                }
+                else {
+                    positional.add(arg);
+                }
+            }
+            args = positional.toArray(new String[0]);
+            if (args.length >= 4 && args[0].equals("train")) {
+                // train <codebook> <n> <sample files or directories...>
+                try {
+                    Codebook codebook = trainCodebook(Integer.parseInt(args[2]), Arrays.asList(args).subList(3, args.length));
+                    codebook.save(args[1]);
+                    System.out.printf("Codebook %08x written to %s (%d bytes)%n", codebook.getId(), args[1], new File(args[1]).length());
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+            }
+            else if (args.length == 4 && args[0].equals("x")) {
+                // x <file.hc> <start> <length>: extract a decompressed byte range
+                String inputFile = args[1];
+                long start = Long.parseLong(args[2]);
+                long length = Long.parseLong(args[3]);
+                Compressor compressor = new Compressor(1, "", inputFile, inputFile);
+                compressor.compressedFile = inputFile;
+                compressor.codebook = codebookOption(options);
+                File input = new File(inputFile);
+                String outputFileName = String.format("extracted.%s.%d-%d", input.getName().replace(".hc", ""), start, start + length);
+                compressor.decompressedFile = new File(input.getParent(), outputFileName).getAbsolutePath();
+                long startTime = System.currentTimeMillis();
+                try {
+                    compressor.extractRange(start, length);
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+                long endTime = System.currentTimeMillis();
+
+                System.out.println("Extraction completed.");
+                System.out.println("Extraction time: " + (endTime - startTime) + " ms");
+            }
+            else if (args.length == 3) {
+                String inputFile = args[1];
+                int n;
+                if (args[2].equals("auto")) {
+                    // c <file> auto [-maxn=N]: choose n in 1..N (default 4) from a sample of the file
+                    int maxN = options.containsKey("maxn") ? Integer.parseInt(options.get("maxn")) : 4;
+                    int threads = options.containsKey("threads") ? Integer.parseInt(options.get("threads")) : Runtime.getRuntime().availableProcessors();
+                    long selectStart = System.currentTimeMillis();
+                    try {
+                        n = chooseSymbolSize(inputFile, maxN, threads);
+                    }
+                    catch (Exception e) {
+                        e.printStackTrace();
+                        System.exit(1);
+                        return;
+                    }
+                    System.out.println("Selected n=" + n + " in " + (System.currentTimeMillis() - selectStart) + " ms");
+                }
+                else {
+                    n = Integer.parseInt(args[2]);
+                }
+                Compressor compressor = new Compressor(n, inputFile, "", "");
+                compressor.canonical = !options.containsKey("legacy");
+                if (options.containsKey("maxlen")) {
+                    compressor.maxCodeLength = Integer.parseInt(options.get("maxlen"));
+                }
+                if (options.containsKey("threads")) {
+                    compressor.threads = Integer.parseInt(options.get("threads"));
+                }
+                if (options.containsKey("inflight")) {
+                    compressor.maxInFlight = Integer.parseInt(options.get("inflight"));
+                }
+                compressor.writeBlockIndex = !options.containsKey("noindex");
+                compressor.memoryMapped = options.containsKey("mmap");
+                compressor.interleaved = options.containsKey("interleave");
+                compressor.adaptive = options.containsKey("adaptive");
+                compressor.pipelined = options.containsKey("pipeline");
+                compressor.codebook = codebookOption(options);
+                if (options.containsKey("block")) {
+                    // -block=<bytes>[k|m]: input bytes per block, 16k to 64m
+                    compressor.setBlockSize(parseSize(options.get("block")));
+                }
+                if (options.containsKey("topk")) {
+                    // -topk[=K]: codes for the K most frequent symbols only (K picked from the counts if omitted), the rest escaped
+                    compressor.topK = options.get("topk").isEmpty() ? TOP_K_AUTO : Integer.parseInt(options.get("topk"));
+                }
+                if (options.containsKey("lz")) {
+                    // -lz[=level]: LZ77 before Huffman coding, level 1 (fast) to 9 (dense)
+                    compressor.lz77 = true;
+                    if (!options.get("lz").isEmpty()) {
+                        compressor.lzLevel = Integer.parseInt(options.get("lz"));
+                    }
+                }
+                File input = new File(inputFile);
+                String outputFileName = String.format("%s.%d.%s.hc", "21010394", n, input.getName());
+                File outputFile = new File(input.getParent(), outputFileName);
+                compressor.outputFile = outputFile.getAbsolutePath();
+                long startTime = System.currentTimeMillis();
+                try{
+                  compressor.compressFile();  
+                }
+                catch(Exception e){
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+                
+                long endTime = System.currentTimeMillis();
+                long originalSize = new File(inputFile).length();
+                long compressedSize = new File(compressor.outputFile).length();
+                double compressionRatio = (double) compressedSize / originalSize;
+
+                System.out.println("Compression completed.");
+                System.out.println("Compression time: " + (endTime - startTime) + " ms");
+                System.out.println("Compression ratio: " + compressionRatio);
+                if (compressor.adaptive) {
+                    System.out.println("Blocks with their own table: " + compressor.blockTables + " of " + compressor.stats.blocks);
+                }
+                if (compressor.topK != 0) {
+                    System.out.println("Symbols with their own code: " + (compressor.escapeTables == null ? "all"
+                            : (compressor.sortedSymbols.length / n - 1) + ", the rest escaped"));
+                }
+                if (compressor.maxCodeLength > 0) {
+                    System.out.printf("Length limit cost (%d bits): +%.3f%% payload%n", compressor.maxCodeLength, 100 * compressor.lengthLimitCost);
+                }
+                if (options.containsKey("stats")) {
+                    System.out.println(compressor.stats);
+                }
+
+            }
+            else if(args.length == 2){
+                String inputFile = args[1];
+                Compressor compressor = new Compressor(1, "", inputFile, inputFile);
+                compressor.compressedFile = inputFile;
+                File input = new File(inputFile);
+                String outputFileName = "extracted." + input.getName().replace(".hc", "");
+                File outputFile = new File(input.getParent(), outputFileName);
+                compressor.decompressedFile = outputFile.getAbsolutePath();
+                if (options.containsKey("threads")) {
+                    compressor.threads = Integer.parseInt(options.get("threads"));
+                }
+                compressor.memoryMapped = options.containsKey("mmap");
+                compressor.pipelined = options.containsKey("pipeline");
+                compressor.codebook = codebookOption(options);
+                long startTime = System.currentTimeMillis();
+                try{
+                  compressor.decompressFile();  
+                }
+                catch(Exception e){
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+
+            long endTime = System.currentTimeMillis();
+
+            System.out.println("Decompression completed.");
+            System.out.println("Decompression time: " + (endTime - startTime) + " ms");
+            if (options.containsKey("stats")) {
+                System.out.println(compressor.stats);
+            }
+            }
+
+        
+        }
+}
@@ -0,0 +1,451 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class CompressorTest {
+    @TempDir
+    Path directory;
+
+    // `size` bytes over a skewed alphabet of about 20 letters
+    private static byte[] data(int size){
+        Random random = new Random(size);
+        byte[] data = new byte[size];
+        for(int i=0; i<size; i++){
+            data[i] = (byte)('a'+Integer.numberOfTrailingZeros(random.nextInt() | 1 << 20));
+        }
+        return data;
+    }
+    // Compresses data with n=3 and blockSize, and returns the compressed file
+    private Path compress(byte[] data, int blockSize) throws Exception {
+        Path input = directory.resolve("input.bin");
+        Path compressed = directory.resolve("input.bin.hc");
+        Files.write(input, data);
+        Compressor compressor = new Compressor(3, input.toString(), "", compressed.toString());
+        compressor.setBlockSize(blockSize);
+        compressor.compressFile();
+        return compressed;
+    }
+    // Compresses data with n and 16KB blocks after setup has configured the compressor, and returns the compressor
+    private Compressor compress(byte[] data, int n, Consumer<Compressor> setup) throws Exception {
+        Path input = directory.resolve("input.bin");
+        Files.write(input, data);
+        Compressor compressor = new Compressor(n, input.toString(), "", directory.resolve("input.bin.hc").toString());
+        compressor.setBlockSize(16 << 10);
+        setup.accept(compressor);
+        compressor.compressFile();
+        return compressor;
+    }
+    private byte[] decompress(Path compressed) throws Exception {
+        return decompress(compressed, 1);
+    }
+    private byte[] decompress(Path compressed, int threads) throws Exception {
+        return decompress(compressed, decompressor -> decompressor.threads = threads);
+    }
+    private byte[] decompress(Path compressed, Consumer<Compressor> setup) throws Exception {
+        Path restored = directory.resolve("restored.bin");
+        Compressor decompressor = new Compressor(1, "", restored.toString(), compressed.toString());
+        decompressor.compressedFile = compressed.toString();
+        setup.accept(decompressor);
+        decompressor.decompressFile();
+        return Files.readAllBytes(restored);
+    }
+    // n from 1 to past the 8 bytes of a packed symbol, each with three 16KB blocks and then 0, 1 or 7 more bytes
+    static Stream<Arguments> widths(){
+        return IntStream.of(1, 2, 3, 5, 8, 9, 12).boxed()
+                .flatMap(n -> IntStream.of(0, 1, 7).mapToObj(tail -> Arguments.of(n, tail)));
+    }
+    // The same, for modes that need n <= 8
+    static Stream<Arguments> packedWidths(){
+        return widths().filter(arguments -> (int)arguments.get()[0] <= 8);
+    }
+
+    // One and a half blocks and a byte, so the last block is short and ends in a partial n=3 symbol
+    @ParameterizedTest
+    @ValueSource(ints = {16 << 10, 128 << 10, 4 << 20, 64 << 20})
+    void roundTripsAtBlockSize(int blockSize) throws Exception {
+        byte[] data = data(blockSize+blockSize/2+1);
+        assertArrayEquals(data, decompress(compress(data, blockSize)));
+    }
+    @ParameterizedTest
+    @MethodSource("widths")
+    void roundTripsCanonicalAndLegacyCodes(int n, int tail) throws Exception {
+        byte[] data = data(3*(16 << 10)+tail);
+        for(boolean canonical : new boolean[]{true, false}){
+            Compressor compressor = compress(data, n, c -> c.canonical = canonical);
+            assertArrayEquals(data, decompress(Path.of(compressor.outputFile)), "canonical=" + canonical);
+        }
+    }
+    // 13 bits cuts the deepest codes of the skewed small-n alphabets and still fits the 4097 symbols of n=12
+    @ParameterizedTest
+    @MethodSource("widths")
+    void roundTripsLengthLimitedCodes(int n, int tail) throws Exception {
+        byte[] data = data(3*(16 << 10)+tail);
+        for(int maxLength : new int[]{13, 20}){
+            Compressor compressor = compress(data, n, c -> c.maxCodeLength = maxLength);
+            assertTrue(compressor.lengthCounts.length-1 <= maxLength, "maxlen=" + maxLength);
+            assertArrayEquals(data, decompress(Path.of(compressor.outputFile)), "maxlen=" + maxLength);
+        }
+    }
+    @ParameterizedTest
+    @MethodSource("widths")
+    void roundTripsParallelBlocks(int n, int tail) throws Exception {
+        byte[] data = data(3*(16 << 10)+tail);
+        Compressor compressor = compress(data, n, c -> c.threads = 4);
+        for(int threads : new int[]{1, 4}){
+            assertArrayEquals(data, decompress(Path.of(compressor.outputFile), threads), "threads=" + threads);
+        }
+    }
+    // Counting ranges of the file on several threads must give the counts, so the file, of one pass. Past n=8 the
+    // Node tree breaks count ties in map order, which merging changes, so there only the round trip is checked.
+    @ParameterizedTest
+    @MethodSource("widths")
+    void countsTheSameOnEveryThreadCount(int n, int tail) throws Exception {
+        byte[] data = data(3*(16 << 10)+tail);
+        byte[] expected = Files.readAllBytes(Path.of(compress(data, n, c -> c.threads = 1).outputFile));
+        for(int threads : new int[]{2, 3, 4}){
+            Compressor compressor = compress(data, n, c -> c.threads = threads);
+            if(n <= 8){
+                assertArrayEquals(expected, Files.readAllBytes(Path.of(compressor.outputFile)), "threads=" + threads);
+            }
+            assertArrayEquals(data, decompress(Path.of(compressor.outputFile)), "threads=" + threads);
+        }
+    }
+    // The flags byte of the header for each combination of the compress options, set as main sets them; LZ77 drops
+    // interleaving, adaptive tables and topK, and topK is also dropped by adaptive tables and codebooks
+    static Stream<Arguments> headerFlags(){
+        return Stream.of(
+                Arguments.of("", 1), Arguments.of("-noindex", 0), Arguments.of("-mmap", 1), Arguments.of("-pipeline", 1),
+                Arguments.of("-interleave", 1 | 2), Arguments.of("-interleave -noindex", 2),
+                Arguments.of("-interleave -pipeline", 1 | 2),
+                Arguments.of("-lz", 1 | 4), Arguments.of("-lz -noindex", 4), Arguments.of("-lz -interleave", 1 | 4),
+                Arguments.of("-adaptive", 1 | 8), Arguments.of("-adaptive -noindex", 8),
+                Arguments.of("-adaptive -interleave", 1 | 2 | 8), Arguments.of("-adaptive -lz", 1 | 4),
+                Arguments.of("-codebook", 1 | 16), Arguments.of("-codebook -noindex", 16),
+                Arguments.of("-codebook -interleave", 1 | 2 | 16),
+                Arguments.of("-topk=16", 1 | 32), Arguments.of("-topk=16 -noindex", 32), Arguments.of("-topk=16 -lz", 1 | 4),
+                Arguments.of("-topk=16 -adaptive", 1 | 8), Arguments.of("-topk=16 -codebook", 1 | 16));
+    }
+    @ParameterizedTest
+    @MethodSource("headerFlags")
+    void writesHeaderFlags(String options, int flags) throws Exception {
+        byte[] data = data(3*(16 << 10)+1);
+        Path sample = directory.resolve("sample.bin");
+        Files.write(sample, data);
+        Compressor.Codebook codebook = options.contains("-codebook") ? Compressor.trainCodebook(3, List.of(sample.toString())) : null;
+        Compressor compressor = compress(data, 3, c -> {
+            c.writeBlockIndex = !options.contains("-noindex");
+            c.memoryMapped = options.contains("-mmap");
+            c.interleaved = options.contains("-interleave");
+            c.adaptive = options.contains("-adaptive");
+            c.pipelined = options.contains("-pipeline");
+            c.lz77 = options.contains("-lz");
+            c.codebook = codebook;
+            c.topK = options.contains("-topk") ? 16 : 0;
+        });
+        assertEquals(flags, compressor.flags);
+        assertArrayEquals(data, decompress(Path.of(compressor.outputFile), d -> d.codebook = codebook));
+    }
+    @Test
+    void rejectsTopKWithInterleavedBlocks() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> compress(data(3*(16 << 10)+1), 3, c -> {
+            c.interleaved = true;
+            c.topK = 16;
+        }));
+    }
+    // Ranges inside, across and past the blocks, with and without an index, and with tables carried by earlier blocks
+    @ParameterizedTest
+    @MethodSource("widths")
+    void extractsRanges(int n, int tail) throws Exception {
+        byte[] data = data(3*(16 << 10)+tail);
+        long[][] ranges = {{0, 1}, {(16 << 10)-1, 2}, {20_000, 20_000}, {1, data.length}, {data.length-3, 10},
+                {data.length, 5}, {data.length+5, 5}};
+        for(String mode : new String[]{"index", "noindex", "adaptive", "adaptive noindex", "lz"}){
+            Compressor compressor = compress(data, n, c -> {
+                c.writeBlockIndex = !mode.contains("noindex");
+                c.adaptive = mode.contains("adaptive");
+                c.lz77 = mode.equals("lz");
+            });
+            for(long[] range : ranges){
+                Path restored = directory.resolve("range.bin");
+                Compressor extractor = new Compressor(1, "", restored.toString(), "");
+                extractor.compressedFile = compressor.outputFile;
+                extractor.extractRange(range[0], range[1]);
+                int from = (int)Math.min(range[0], data.length);
+                int to = (int)Math.min(range[0]+range[1], data.length);
+                assertArrayEquals(Arrays.copyOfRange(data, from, to), Files.readAllBytes(restored), mode + " " + Arrays.toString(range));
+            }
+        }
+    }
+    // Past n=8 there is no packed encoder, so interleaving is dropped
+    @ParameterizedTest
+    @MethodSource("widths")
+    void roundTripsInterleavedBlocks(int n, int tail) throws Exception {
+        byte[] data = data(3*(16 << 10)+tail);
+        Compressor compressor = compress(data, n, c -> c.interleaved = true);
+        assertEquals(n <= 8, compressor.interleaved);
+        for(int threads : new int[]{1, 4}){
+            assertArrayEquals(data, decompress(Path.of(compressor.outputFile), threads), "threads=" + threads);
+        }
+    }
+    // With a 10000-byte repeat that crosses into the third block, for long matches as well as short ones
+    @ParameterizedTest
+    @MethodSource("widths")
+    void roundTripsLz77(int n, int tail) throws Exception {
+        byte[] data = data(3*(16 << 10)+tail);
+        System.arraycopy(data, 0, data, 30_000, 10_000);
+        for(int level : new int[]{1, 6, 9}){
+            Compressor compressor = compress(data, n, c -> {
+                c.lz77 = true;
+                c.lzLevel = level;
+            });
+            for(int threads : new int[]{1, 4}){
+                assertArrayEquals(data, decompress(Path.of(compressor.outputFile), threads), "level=" + level + " threads=" + threads);
+            }
+        }
+    }
+    // The letters of the first block turn into other bytes from the second on, so a later block needs its own table;
+    // past n=8 adaptive tables are dropped
+    @ParameterizedTest
+    @MethodSource("widths")
+    void roundTripsAdaptiveTables(int n, int tail) throws Exception {
+        byte[] data = data(3*(16 << 10)+tail);
+        for(int i=16 << 10; i<data.length; i++){
+            data[i] -= 'a'-'0';
+        }
+        Compressor compressor = compress(data, n, c -> c.adaptive = true);
+        assertEquals(n <= 8, compressor.adaptive);
+        if(n <= 8){
+            assertTrue(compressor.blockTables >= 2);
+        }
+        for(int threads : new int[]{1, 4}){
+            assertArrayEquals(data, decompress(Path.of(compressor.outputFile), threads), "threads=" + threads);
+        }
+    }
+    @ParameterizedTest
+    @MethodSource("widths")
+    void roundTripsPipelinedBlocks(int n, int tail) throws Exception {
+        byte[] data = data(3*(16 << 10)+tail);
+        for(int coders : new int[]{1, 3}){
+            Compressor compressor = compress(data, n, c -> {
+                c.pipelined = true;
+                c.threads = coders;
+            });
+            byte[] restored = decompress(Path.of(compressor.outputFile), d -> {
+                d.pipelined = true;
+                d.threads = coders;
+            });
+            assertArrayEquals(data, restored, "coders=" + coders);
+        }
+    }
+    // For n <= 2 a codebook codes every symbol, so it is trained on other data; for larger n the samples include the
+    // payload. The file is decoded with the trained codebook and with one saved and loaded again.
+    @ParameterizedTest
+    @MethodSource("packedWidths")
+    void roundTripsCodebooks(int n, int tail) throws Exception {
+        byte[] data = data(3*(16 << 10)+tail);
+        Path sample = directory.resolve("sample.bin");
+        Files.write(sample, n <= 2 ? data(100_000) : data);
+        Compressor.Codebook codebook = Compressor.trainCodebook(n, List.of(sample.toString()));
+        Path saved = directory.resolve("codebook.hcb");
+        codebook.save(saved.toString());
+        Compressor.Codebook loaded = Compressor.Codebook.load(saved.toString());
+        assertEquals(codebook.getId(), loaded.getId());
+        Compressor compressor = compress(data, n, c -> c.codebook = codebook);
+        Path compressed = Path.of(compressor.outputFile);
+        for(Compressor.Codebook tables : new Compressor.Codebook[]{codebook, loaded}){
+            for(int threads : new int[]{1, 4}){
+                assertArrayEquals(data, decompress(compressed, d -> {
+                    d.codebook = tables;
+                    d.threads = threads;
+                }), "threads=" + threads);
+            }
+        }
+        assertThrows(IllegalStateException.class, () -> decompress(compressed));
+    }
+    @Test
+    void rejectsCodebooksPastEightBytes(){
+        assertThrows(IllegalArgumentException.class, () -> Compressor.trainCodebook(9, List.of()));
+    }
+    // The second compressor and decompressor of the same data find their tables in the cache, and the second file is
+    // the first one again; past n=8 the cache is unused, and the Node tree may break count ties another way. A stream
+    // of one block written three times finds the tables of the blocks after the first.
+    @ParameterizedTest
+    @MethodSource("widths")
+    void roundTripsThroughTheTableCache(int n, int tail) throws Exception {
+        byte[] data = data(3*(16 << 10)+tail);
+        Compressor.TableCache cache = new Compressor.TableCache(1 << 24);
+        byte[] first = Files.readAllBytes(Path.of(compress(data, n, c -> c.tableCache = cache).outputFile));
+        Compressor compressor = compress(data, n, c -> c.tableCache = cache);
+        assertEquals(n <= 8 ? 1 : 0, cache.getHits());
+        if(n <= 8){
+            assertArrayEquals(first, Files.readAllBytes(Path.of(compressor.outputFile)));
+        }
+        for(int i=0; i<2; i++){
+            assertArrayEquals(data, decompress(Path.of(compressor.outputFile), d -> d.tableCache = cache));
+        }
+        assertEquals(n <= 8 ? 2 : 0, cache.getHits());
+
+        Compressor.TableCache streamCache = new Compressor.TableCache(1 << 24);
+        byte[] block = Arrays.copyOf(data, (16 << 10)/n*n);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(Compressor.HuffmanOutputStream out = new Compressor.HuffmanOutputStream(bytes, n, 16 << 10)){
+            out.tableCache = streamCache;
+            for(int i=0; i<3; i++){
+                out.write(block);
+            }
+        }
+        try(Compressor.HuffmanInputStream in = new Compressor.HuffmanInputStream(new ByteArrayInputStream(bytes.toByteArray()))){
+            in.tableCache = streamCache;
+            byte[] restored = in.readAllBytes();
+            for(int i=0; i<3; i++){
+                assertArrayEquals(block, Arrays.copyOfRange(restored, i*block.length, (i+1)*block.length));
+            }
+        }
+        assertEquals(n <= 8 ? 4 : 0, streamCache.getHits());
+    }
+    // Every width up to 8 has more than 16 symbols to escape, and for n > 2 the counts of 16 symbols come from a summary
+    // that drops most of the others, also when ranges counted on four threads are merged; past n=8 topK is ignored
+    @ParameterizedTest
+    @MethodSource("widths")
+    void roundTripsEscapedSymbols(int n, int tail) throws Exception {
+        byte[] data = data(3*(16 << 10)+tail);
+        for(int topK : new int[]{16, 1000, Compressor.TOP_K_AUTO}){
+            for(int threads : new int[]{1, 4}){
+                Compressor compressor = compress(data, n, c -> {
+                    c.topK = topK;
+                    c.threads = threads;
+                });
+                if(topK == 16){
+                    // FLAG_ESCAPE
+                    assertEquals(n <= 8, (compressor.flags & 32) != 0);
+                }
+                assertArrayEquals(data, decompress(Path.of(compressor.outputFile), threads), "topK=" + topK + " threads=" + threads);
+            }
+        }
+    }
+    @Test
+    void compressesTwiceWithOneInstance() throws Exception {
+        byte[] first = data(3*(16 << 10)+5);
+        byte[] second = data(2*(16 << 10)+1);
+        Path firstInput = directory.resolve("first.bin");
+        Path secondInput = directory.resolve("second.bin");
+        Files.write(firstInput, first);
+        Files.write(secondInput, second);
+        Compressor compressor = new Compressor(3, firstInput.toString(), "", directory.resolve("first.hc").toString());
+        compressor.setBlockSize(16 << 10);
+        compressor.compressFile();
+        compressor.inputFile = secondInput.toString();
+        compressor.outputFile = directory.resolve("second.hc").toString();
+        compressor.compressFile();
+        for(int threads : new int[]{1, 4}){
+            assertArrayEquals(first, decompress(directory.resolve("first.hc"), threads));
+            assertArrayEquals(second, decompress(directory.resolve("second.hc"), threads));
+        }
+        // the index of the second file holds only its own blocks
+        Path restored = directory.resolve("range.bin");
+        Compressor extractor = new Compressor(1, "", restored.toString(), "");
+        extractor.compressedFile = directory.resolve("second.hc").toString();
+        extractor.extractRange(second.length-10, 10);
+        assertArrayEquals(Arrays.copyOfRange(second, second.length-10, second.length), Files.readAllBytes(restored));
+    }
+    @Test
+    void rejectsBlockSizesOutOfRange(){
+        Compressor compressor = new Compressor(1);
+        assertThrows(IllegalArgumentException.class, () -> compressor.setBlockSize(Compressor.MIN_BLOCK_SIZE-1));
+        assertThrows(IllegalArgumentException.class, () -> compressor.setBlockSize(Compressor.MAX_BLOCK_SIZE+1));
+        assertThrows(IllegalArgumentException.class, () -> compressor.setBlockSize(Compressor.parseSize("128m")));
+        compressor.setBlockSize(Compressor.MIN_BLOCK_SIZE);
+        assertEquals(Compressor.MIN_BLOCK_SIZE, compressor.getBlockSize());
+        compressor.setBlockSize(Compressor.parseSize("64m"));
+        assertEquals(Compressor.MAX_BLOCK_SIZE, compressor.getBlockSize());
+    }
+    // Overwrites the int at field of the first block frame, found through the block index: 0 for the compressed
+    // length, 4 for the length
+    private void corruptFirstFrame(Path compressed, int field, int value) throws Exception {
+        try(RandomAccessFile file = new RandomAccessFile(compressed.toFile(), "rw")){
+            file.seek(file.length()-16+4);
+            file.seek(file.readLong());
+            file.seek(file.readLong()+field);
+            file.writeInt(value);
+        }
+    }
+    @Test
+    void rejectsFramesLongerThanABlock() throws Exception {
+        Path compressed = compress(data(100_000), 16 << 10);
+        corruptFirstFrame(compressed, 4, Compressor.MAX_BLOCK_SIZE+1);
+        assertEquals("Corrupt block frame", assertThrows(IllegalStateException.class, () -> decompress(compressed)).getMessage());
+    }
+    @Test
+    void rejectsCompressedLengthsPastTheFile() throws Exception {
+        Path compressed = compress(data(100_000), 16 << 10);
+        corruptFirstFrame(compressed, 0, 0x7FFFFFF0);
+        assertEquals("Corrupt block frame", assertThrows(IllegalStateException.class, () -> decompress(compressed)).getMessage());
+    }
+    @Test
+    void rejectsNegativeFrameLengths() throws Exception {
+        Path compressed = compress(data(100_000), 16 << 10);
+        corruptFirstFrame(compressed, 4, -1);
+        assertEquals("Corrupt block frame", assertThrows(IllegalStateException.class, () -> decompress(compressed)).getMessage());
+    }
+    @Test
+    void rejectsStreamBlockSizesOutOfRange(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertThrows(IllegalArgumentException.class, () -> new Compressor.HuffmanOutputStream(bytes, 3, 2));
+        assertThrows(IllegalArgumentException.class, () -> new Compressor.HuffmanOutputStream(bytes, 1, Compressor.MAX_BLOCK_SIZE+1));
+    }
+    @Test
+    void closesStreamsOnce() throws Exception {
+        byte[] data = data(100_000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new Compressor.HuffmanOutputStream(bytes, 2);
+        out.write(data);
+        out.close();
+        int size = bytes.size();
+        out.close();
+        assertEquals(size, bytes.size());
+        try(InputStream in = new Compressor.HuffmanInputStream(new ByteArrayInputStream(bytes.toByteArray()))){
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+    @Test
+    void rejectsBadStreamFrames() throws Exception {
+        byte[] data = data(100_000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(OutputStream out = new Compressor.HuffmanOutputStream(bytes, 2)){
+            out.write(data);
+        }
+        byte[] stream = bytes.toByteArray();
+        try(InputStream in = new Compressor.HuffmanInputStream(new ByteArrayInputStream(stream))){
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        // magic, n and the first table's size, then the table and the block frame
+        int tableSize = new DataInputStream(new ByteArrayInputStream(stream, 8, 4)).readInt();
+        stream[12+tableSize+4] = (byte)0x7F;
+        InputStream in = new Compressor.HuffmanInputStream(new ByteArrayInputStream(stream));
+        assertEquals("Corrupt block frame", assertThrows(IllegalStateException.class, in::readAllBytes).getMessage());
+    }
+}